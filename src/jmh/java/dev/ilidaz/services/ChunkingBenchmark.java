@@ -0,0 +1,90 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search over listings with long descriptions, stored as one segment each against chunks of max-segment-tokens
+ * split like {@link ImportService} does on ingestion. Each query asks for one feature buried in a description,
+ * recall@5 of the listing it was written for is printed after setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkingBenchmark {
+
+    /**
+     * properties.chunking.max-segment-tokens, 0 stores every description as one segment
+     */
+    @Param({"0", "64", "256"})
+    int maxSegmentTokens;
+
+    @Param({"1000"})
+    int properties;
+
+    private Corpus corpus;
+    private SearchFixture fixture;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // About 600 tokens per description
+        corpus = new Corpus(properties, 40, 256, 42);
+        List<TextSegment> segments = segments();
+        FakeEmbeddingModel model = new FakeEmbeddingModel(256);
+        fixture = new SearchFixture(corpus, SearchFixture.store(model, segments), model);
+
+        int found = 0;
+        for (Corpus.Query query : corpus.queries) {
+            if (fixture.searchService.find(query.text()).stream().map(Property::getId).anyMatch(query.id()::equals)) {
+                found++;
+            }
+        }
+        System.out.printf("%nrecall@5 %.3f with %s segments of %s properties%n",
+                (double) found / corpus.queries.size(), segments.size(), properties);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public List<Property> find() {
+        return fixture.searchService.find(corpus.queries.get(Math.floorMod(next++, corpus.queries.size())).text());
+    }
+
+    private List<TextSegment> segments() {
+        if (maxSegmentTokens == 0) {
+            return corpus.segments();
+        }
+        DocumentSplitter splitter = DocumentSplitters.recursive(
+                maxSegmentTokens * ImportService.CHARS_PER_TOKEN, 32 * ImportService.CHARS_PER_TOKEN);
+        return corpus.properties.stream()
+                .flatMap(property -> splitter.split(ImportService.toDocument(property)).stream()
+                        .map(segment -> TextSegment.from(
+                                ImportService.segmentText(segment.text(), property.getSingleLine(), property.getId()),
+                                segment.metadata())))
+                .toList();
+    }
+}
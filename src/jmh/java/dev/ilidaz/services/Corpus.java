@@ -0,0 +1,147 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import dev.langchain4j.data.segment.TextSegment;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Synthetic listings for benchmarks, the same seed always gives the same corpus.
+ * Every listing has a few features spread over filler sentences of its description,
+ * each query asks for one feature of one listing, which is the relevant answer to it.
+ */
+final class Corpus {
+
+    static final String[] TYPES = {"flat", "apartment", "house", "studio", "penthouse", "townhouse", "cottage",
+            "bungalow", "loft", "villa"};
+    static final String[] REGIONS = {"Camden", "Hackney", "Islington", "Westminster", "Greenwich", "Brixton",
+            "Chelsea", "Wimbledon", "Richmond", "Croydon", "Ealing", "Fulham"};
+    private static final String[] STREETS = {"High Street", "Station Road", "Church Lane", "Park Avenue", "Mill Road",
+            "Queens Road", "Victoria Street", "Kings Road", "Green Lane", "Manor Way"};
+    private static final String[] FEATURES = {"balcony", "private garden", "underground parking", "roof terrace",
+            "residents gym", "concierge", "wood burning fireplace", "double garage", "river view", "swimming pool",
+            "open plan kitchen", "home office", "en suite bathroom", "loft conversion", "wine cellar", "sauna",
+            "bike storage", "walk in wardrobe", "conservatory", "solar panels", "heated floors", "cinema room",
+            "utility room", "summer house"};
+    private static final String[] FILLER = {
+            "The reception room is flooded with natural light throughout the day.",
+            "Local shops, cafes and restaurants are within a short walk.",
+            "The property has been recently refurbished to a high standard.",
+            "Excellent transport links make commuting into the city easy.",
+            "Viewing is highly recommended to appreciate the space on offer.",
+            "The kitchen comes with integrated appliances and stone worktops.",
+            "Good schools and green spaces are close by.",
+            "The bedrooms are generously sized with fitted storage.",
+            "Neutral decor throughout means you can move straight in.",
+            "The building is well maintained with a long lease remaining."};
+
+    final List<Property> properties;
+    final List<Query> queries;
+
+    /**
+     * @param size      Number of listings
+     * @param sentences Filler sentences per description, the features are spread between them
+     * @param queries   Number of queries
+     * @param seed      Seed of the random choices
+     */
+    Corpus(int size, int sentences, int queries, long seed) {
+        Random random = new Random(seed);
+        properties = new ArrayList<>(size);
+        List<List<String>> features = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int bedrooms = 1 + random.nextInt(5);
+            String type = TYPES[random.nextInt(TYPES.length)];
+            String region = REGIONS[random.nextInt(REGIONS.length)];
+            List<String> listingFeatures = new ArrayList<>();
+            while (listingFeatures.size() < 3) {
+                String feature = FEATURES[random.nextInt(FEATURES.length)];
+                if (!listingFeatures.contains(feature)) {
+                    listingFeatures.add(feature);
+                }
+            }
+
+            List<String> description = new ArrayList<>();
+            description.add("Bright %d bedroom %s in %s.".formatted(bedrooms, type, region));
+            for (int sentence = 0; sentence < sentences; sentence++) {
+                description.add(FILLER[random.nextInt(FILLER.length)]);
+            }
+            for (String feature : listingFeatures) {
+                description.add(1 + random.nextInt(description.size()), "Features include %s.".formatted(feature));
+            }
+
+            properties.add(Property.builder()
+                    .id(UUID.nameUUIDFromBytes(("property-" + seed + "-" + i).getBytes(StandardCharsets.UTF_8)).toString())
+                    .title("%d bedroom %s with %s".formatted(bedrooms, type, listingFeatures.getFirst()))
+                    .description(String.join(" ", description))
+                    .singleLine("%d %s, %s, %s".formatted(1 + random.nextInt(200), STREETS[random.nextInt(STREETS.length)],
+                            region, "N" + (1 + random.nextInt(20)) + " " + random.nextInt(10) + "AB"))
+                    .build());
+            features.add(listingFeatures);
+        }
+
+        this.queries = new ArrayList<>(queries);
+        for (int i = 0; i < queries; i++) {
+            int listing = random.nextInt(size);
+            Property property = properties.get(listing);
+            String feature = features.get(listing).get(random.nextInt(3));
+            this.queries.add(new Query("%s with %s in %s".formatted(
+                    property.getTitle().substring(0, property.getTitle().indexOf(" with ")),
+                    feature,
+                    property.region()), property.getId()));
+        }
+    }
+
+    /**
+     * @return Segments of every listing as stored without chunking
+     */
+    List<TextSegment> segments() {
+        return properties.stream().map(ImportService::toTextSegment).toList();
+    }
+
+    /**
+     * @return Listings in the format of the import file, one record per line after the header
+     */
+    String csv() {
+        StringBuilder csv = new StringBuilder();
+        try (CSVPrinter printer = new CSVPrinter(csv, CSVFormat.DEFAULT.builder().setDelimiter(';').setRecordSeparator('\n').build())) {
+            printer.printRecord("id", "title", "description", "singleLine");
+            for (Property property : properties) {
+                printer.printRecord(property.getId(), property.getTitle(), property.getDescription(), property.getSingleLine());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Bot answer recommending listings, with an {"id": "..."} placeholder after each of them
+     *
+     * @param listings Number of recommended listings
+     */
+    String answer(int listings) {
+        StringBuilder answer = new StringBuilder("Here are some properties which match your request, ")
+                .append("let me know if you would like to arrange a viewing of any of them.\n\n");
+        for (int i = 0; i < listings; i++) {
+            Property property = properties.get(i % properties.size());
+            answer.append(i + 1).append(". ").append(property.getTitle()).append(" at ").append(property.getSingleLine())
+                    .append(". ").append(FILLER[i % FILLER.length])
+                    .append(" {\"id\": \"").append(property.getId()).append("\"}\n");
+        }
+        return answer.append("\nThe team will be happy to answer any further questions.").toString();
+    }
+
+    /**
+     * Query with the listing it was written for
+     */
+    record Query(String text, String id) {
+    }
+}
@@ -0,0 +1,71 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing an import file of records into properties, the time is per file.
+ * The import streams the file through one {@link CSVParser}, {@link Property#fromCsvLine} parses a line at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParsingBenchmark {
+
+    @Param({"10000"})
+    int records;
+
+    /**
+     * Filler sentences per description, 4 for short listings and 40 for long ones
+     */
+    @Param({"4", "40"})
+    int sentences;
+
+    private String csv;
+    private List<String> lines;
+
+    @Setup
+    public void setUp() {
+        csv = new Corpus(records, sentences, 0, 42).csv();
+        lines = csv.lines().skip(1).toList();
+    }
+
+    @Benchmark
+    public void parser(Blackhole blackhole) throws IOException {
+        try (CSVParser parser = ImportService.CSV_FORMAT.parse(new StringReader(csv))) {
+            for (CSVRecord record : parser) {
+                if (!record.get(0).equals("id")) {
+                    blackhole.consume(Property.fromCsvRecord(record));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void fromCsvLine(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(Property.fromCsvLine(line));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.model.ollama.OllamaEmbeddingModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of bursts of concurrent single text embed calls, in embeddings per second, through the
+ * {@link BatchingEmbeddingModel} with micro-batching on and off. The requests go over HTTP through the langchain4j
+ * Ollama client to a {@link DownstreamStub}, which takes 20 ms per request plus 0.5 ms per text, and at most
+ * downstream.embedding.max-concurrency requests run at once, like against Ollama.
+ * Every fourth text of a burst repeats an earlier one, as concurrent chats often ask the same question.
+ * The embed requests per burst and their average size are printed after the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(EmbeddingBatchingBenchmark.REQUESTS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EmbeddingBatchingBenchmark {
+
+    static final int REQUESTS = 500;
+
+    /**
+     * embedding.batch.enabled
+     */
+    @Param({"true", "false"})
+    boolean batching;
+
+    private Corpus corpus;
+    private DownstreamStub server;
+    private BatchingEmbeddingModel model;
+    private ExecutorService virtualThreads;
+    private long bursts;
+    private long next;
+
+    @Setup
+    public void setUp() {
+        corpus = new Corpus(200, 3, 256, 42);
+        server = new DownstreamStub(1024, Duration.ofMillis(20));
+        server.textLatency(Duration.ofNanos(500_000));
+        OllamaEmbeddingModel client = OllamaEmbeddingModel.builder()
+                .baseUrl(server.url())
+                .modelName("snowflake-arctic-embed2")
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+        // Without batching a burst queues longer than the default acquire timeout of 5 s on a single core
+        model = new BatchingEmbeddingModel(client, new DownstreamLimiter(32, 16, 20, 16, Duration.ofMinutes(1)),
+                new SearchMetrics(registry), virtualThreads, batching, 3, 32);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%n%.1f embed requests per burst of %s texts, %.1f texts per request%n",
+                (double) server.embeddingRequests.get() / bursts, REQUESTS,
+                server.embeddingBatches.stream().mapToInt(Integer::intValue).average().orElse(0));
+        server.close();
+        virtualThreads.shutdownNow();
+    }
+
+    /**
+     * @return Sum of the dimensions of all embeddings of the burst
+     */
+    @Benchmark
+    public int burst() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> requests = new ArrayList<>(REQUESTS);
+        String query = null;
+        for (int i = 0; i < REQUESTS; i++) {
+            if (i % 4 != 3) {
+                // Every fourth text repeats the one before, batching embeds it once
+                query = corpus.queries.get(i % corpus.queries.size()).text() + " " + next++;
+            }
+            String text = query;
+            requests.add(virtualThreads.submit(() -> model.embed(text).content().dimension()));
+        }
+        bursts++;
+
+        int dimensions = 0;
+        for (Future<Integer> request : requests) {
+            dimensions += request.get();
+        }
+        return dimensions;
+    }
+}
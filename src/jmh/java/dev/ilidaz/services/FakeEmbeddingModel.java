@@ -0,0 +1,96 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deterministic stand-in for the embedding server.
+ * Words are hashed into the dimensions of the vector, so texts sharing words are similar and a text always gets the
+ * same vector. Like with real models all vectors lie in a narrow cone: a constant component puts the cosine
+ * similarity of unrelated texts at about 0.8, so the minimum scores of the search paths keep their meaning.
+ * A latency per request and per text simulates the round trip to the server.
+ */
+class FakeEmbeddingModel implements EmbeddingModel {
+
+    private static final float CONE = 2;
+
+    private final int dimension;
+    private final long requestNanos;
+    private final long textNanos;
+    private final AtomicLong requests = new AtomicLong();
+
+    FakeEmbeddingModel(int dimension) {
+        this(dimension, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * @param dimension      Dimension of the vectors
+     * @param requestLatency Time every request takes
+     * @param textLatency    Additional time per text of a request
+     */
+    FakeEmbeddingModel(int dimension, Duration requestLatency, Duration textLatency) {
+        this.dimension = dimension;
+        this.requestNanos = requestLatency.toNanos();
+        this.textNanos = textLatency.toNanos();
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        requests.incrementAndGet();
+        long latency = requestNanos + textNanos * textSegments.size();
+        if (latency > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(latency));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while embedding", e);
+            }
+        }
+        return Response.from(textSegments.stream()
+                .map(segment -> Embedding.from(vector(segment.text())))
+                .toList());
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * @return Number of embedAll requests so far
+     */
+    long requests() {
+        return requests.get();
+    }
+
+    float[] vector(String text) {
+        float[] words = new float[dimension];
+        for (String token : LexicalIndex.tokenize(text)) {
+            int hash = token.hashCode() * 0x9E3779B9;
+            words[Math.floorMod(hash, dimension - 1) + 1] += (hash & 0x10000) == 0 ? 1 : -1;
+        }
+        normalize(words);
+        words[0] = CONE;
+        normalize(words);
+        return words;
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package dev.ilidaz.services;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction and replacement of the JSON objects in bot answers recommending a number of listings
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonTextProcessorBenchmark {
+
+    @Param({"3", "20"})
+    int listings;
+
+    private final JsonTextProcessor processor = new JsonTextProcessor();
+    private String answer;
+
+    @Setup
+    public void setUp() {
+        answer = new Corpus(listings, 2, 0, 42).answer(listings);
+    }
+
+    @Benchmark
+    public List<UUID> findUuidsInString() {
+        return JsonTextProcessor.findUuidsInString(answer);
+    }
+
+    @Benchmark
+    public List<JsonObject> extractJsonObjects() {
+        return processor.extractJsonObjects(answer);
+    }
+
+    @Benchmark
+    public Optional<JsonObject> findFirstJsonObject() {
+        return processor.findFirstJsonObject(answer);
+    }
+
+    @Benchmark
+    public String replaceFirstJsonWithStaticValue() {
+        return processor.replaceFirstJsonWithStaticValue(answer, "[property]");
+    }
+
+    @Benchmark
+    public String replaceFirstJsonWithCustomFormat() {
+        return processor.replaceFirstJsonWithCustomFormat(answer, json -> json.getString("id").substring(0, 8));
+    }
+
+    @Benchmark
+    public String replaceJsonWithStaticValue() {
+        return processor.replaceJsonWithStaticValue(answer, "[property]");
+    }
+
+    @Benchmark
+    public String replaceJsonWithCustomFormat() {
+        return processor.replaceJsonWithCustomFormat(answer, json -> json.getString("id").substring(0, 8));
+    }
+}
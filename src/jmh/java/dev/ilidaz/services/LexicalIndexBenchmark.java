@@ -0,0 +1,74 @@
+package dev.ilidaz.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BM25 search of the {@link LexicalIndex} up to a million listings, with the top 5 of the chat fallback
+ * and the 100 properties ranked for pagination. The synthetic listings share a small vocabulary,
+ * so every query term matches a large share of them, which is the worst case for the pruning.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LexicalIndexBenchmark {
+
+    @Param({"10000", "1000000"})
+    int properties;
+
+    private LexicalIndex index;
+    private List<Corpus.Query> queries;
+    private List<SearchFilter> filters;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Corpus corpus = new Corpus(properties, 1, 256, 42);
+        index = new LexicalIndex(null, true, Optional.empty(), Duration.ofHours(24), 0.2);
+        corpus.properties.forEach(index::index);
+        // Only the index and the queries stay reachable during the measurement
+        queries = corpus.queries;
+        SearchFilterExtractor filterExtractor = new SearchFilterExtractor(index, true);
+        filters = queries.stream().map(query -> filterExtractor.extract(query.text())).toList();
+    }
+
+    @Benchmark
+    public List<String> top5() {
+        return index.search(nextQuery(), 5);
+    }
+
+    @Benchmark
+    public List<String> top100() {
+        return index.search(nextQuery(), 100);
+    }
+
+    /**
+     * Region and type named in the query, as extracted by {@link SearchFilterExtractor}
+     */
+    @Benchmark
+    public List<String> top5Filtered() {
+        int query = Math.floorMod(next++, queries.size());
+        return index.search(queries.get(query).text(), 5, filters.get(query));
+    }
+
+    private String nextQuery() {
+        return queries.get(Math.floorMod(next++, queries.size())).text();
+    }
+}
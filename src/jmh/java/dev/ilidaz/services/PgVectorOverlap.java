@@ -0,0 +1,99 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The same vectors in a temporary pgvector table, to compare the top-k of an in-process store with the
+ * {@code <=>} cosine ordering the PgVector embedding store uses. Needs a PostgreSQL with the vector extension,
+ * so it is only loaded when {@code -Dpgvector.url} is set, {@code -Dpgvector.user} and {@code -Dpgvector.password}
+ * default to the Dev Services credentials.
+ */
+class PgVectorOverlap implements AutoCloseable {
+
+    private static final String URL = System.getProperty("pgvector.url");
+
+    private final Connection connection;
+
+    private PgVectorOverlap(Connection connection) {
+        this.connection = connection;
+    }
+
+    static boolean enabled() {
+        return URL != null;
+    }
+
+    static PgVectorOverlap load(List<String> ids, List<Embedding> embeddings) throws SQLException {
+        Connection connection = DriverManager.getConnection(URL, System.getProperty("pgvector.user", "quarkus"),
+                System.getProperty("pgvector.password", "quarkus"));
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE EXTENSION IF NOT EXISTS vector");
+            // Dropped with the connection, without an index the ordering is exact
+            statement.execute("CREATE TEMPORARY TABLE benchmark_embeddings (id text PRIMARY KEY, embedding vector(%d))"
+                    .formatted(embeddings.getFirst().dimension()));
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO benchmark_embeddings (id, embedding) VALUES (?, ?::vector)")) {
+            for (int i = 0; i < ids.size(); i++) {
+                insert.setString(1, ids.get(i));
+                insert.setString(2, Arrays.toString(embeddings.get(i).vector()));
+                insert.addBatch();
+                if (i % 1000 == 999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        return new PgVectorOverlap(connection);
+    }
+
+    /**
+     * Average share of the pgvector top-k the store also returns, over all queries
+     */
+    String overlap(EmbeddingStore<TextSegment> store, List<Embedding> queries, int k) throws SQLException {
+        double overlap = 0;
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id FROM benchmark_embeddings ORDER BY embedding <=> ?::vector LIMIT ?")) {
+            for (Embedding query : queries) {
+                select.setString(1, Arrays.toString(query.vector()));
+                select.setInt(2, k);
+                Set<String> expected = new HashSet<>();
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        expected.add(rows.getString(1));
+                    }
+                }
+                Set<String> found = store.search(EmbeddingSearchRequest.builder()
+                                .queryEmbedding(query)
+                                .maxResults(k)
+                                .minScore(0.0)
+                                .build()).matches().stream()
+                        .map(EmbeddingMatch::embeddingId)
+                        .collect(Collectors.toSet());
+                found.retainAll(expected);
+                overlap += (double) found.size() / expected.size();
+            }
+        }
+        return "top-%d overlap with pgvector %.3f over %d queries".formatted(k, overlap / queries.size(), queries.size());
+    }
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+}
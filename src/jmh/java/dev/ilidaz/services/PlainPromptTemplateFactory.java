@@ -0,0 +1,23 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.spi.prompt.PromptTemplateFactory;
+
+import java.util.Map;
+
+/**
+ * Prompt templates without CDI for the benchmarks, registered ahead of the Qute templates of the extension which
+ * need the container. Replaces {{name}} placeholders, enough for the default templates of langchain4j.
+ */
+public class PlainPromptTemplateFactory implements PromptTemplateFactory {
+
+    @Override
+    public Template create(Input input) {
+        return variables -> {
+            String text = input.getTemplate();
+            for (Map.Entry<String, Object> variable : variables.entrySet()) {
+                text = text.replace("{{" + variable.getKey() + "}}", String.valueOf(variable.getValue()));
+            }
+            return text;
+        };
+    }
+}
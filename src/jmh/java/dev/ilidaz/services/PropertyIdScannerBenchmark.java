@@ -0,0 +1,126 @@
+package dev.ilidaz.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link PropertyIdScanner} against the regular expressions it replaced in SearchService: finding the ids of an answer,
+ * replacing their placeholders with serial ids and scanning a streamed answer token by token
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyIdScannerBenchmark {
+
+    private static final Pattern UUID_PATTERN = Pattern.compile(
+            "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    private static final Pattern ID_PLACEHOLDER_PATTERN = Pattern.compile(
+            "\\{\"id\":\\s*\"([0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12})\"}");
+    /**
+     * Characters per streamed token, about one token of the model
+     */
+    private static final int TOKEN_LENGTH = 4;
+
+    @Param({"3", "20"})
+    int listings;
+
+    private String answer;
+    private Map<String, String> serialIds;
+    private List<String> tokens;
+
+    @Setup
+    public void setUp() {
+        Corpus corpus = new Corpus(listings, 2, 0, 42);
+        answer = corpus.answer(listings);
+        serialIds = new HashMap<>();
+        corpus.properties.forEach(property -> serialIds.put(property.getId(), property.getId().substring(0, 8)));
+        tokens = new ArrayList<>();
+        for (int i = 0; i < answer.length(); i += TOKEN_LENGTH) {
+            tokens.add(answer.substring(i, Math.min(i + TOKEN_LENGTH, answer.length())));
+        }
+    }
+
+    @Benchmark
+    public List<String> findIdsScanner() {
+        return PropertyIdScanner.findIds(answer);
+    }
+
+    @Benchmark
+    public List<UUID> findIdsRegex() {
+        List<UUID> ids = new ArrayList<>();
+        Matcher matcher = UUID_PATTERN.matcher(answer);
+        while (matcher.find()) {
+            ids.add(UUID.fromString(matcher.group()));
+        }
+        return ids;
+    }
+
+    @Benchmark
+    public String replaceScanner() {
+        return PropertyIdScanner.replacePlaceholders(answer, serialIds);
+    }
+
+    /**
+     * One String.replace per property, each copying the whole answer
+     */
+    @Benchmark
+    public String replaceRegex() {
+        String result = answer;
+        for (Map.Entry<String, String> serialId : serialIds.entrySet()) {
+            result = result.replace("{\"id\": \"%s\"}".formatted(serialId.getKey()), serialId.getValue());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> streamScanner() {
+        PropertyIdScanner scanner = new PropertyIdScanner();
+        List<String> ids = new ArrayList<>();
+        for (String token : tokens) {
+            ids.addAll(scanner.feed(token));
+        }
+        return ids;
+    }
+
+    /**
+     * The matcher is created again for every token and searches from the last unfinished placeholder
+     */
+    @Benchmark
+    public List<String> streamRegex() {
+        StringBuilder text = new StringBuilder();
+        int scanFrom = 0;
+        List<String> ids = new ArrayList<>();
+        for (String token : tokens) {
+            text.append(token);
+            Matcher matcher = ID_PLACEHOLDER_PATTERN.matcher(text).region(scanFrom, text.length());
+            while (matcher.find()) {
+                ids.add(matcher.group(1));
+                scanFrom = matcher.end();
+            }
+            int brace = text.indexOf("{", scanFrom);
+            scanFrom = brace < 0 ? text.length() : brace;
+        }
+        return ids;
+    }
+}
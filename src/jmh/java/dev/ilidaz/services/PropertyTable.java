@@ -0,0 +1,100 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The listings of a corpus in a temporary table, loaded like {@link Property#findByIdsOrdered} without Hibernate,
+ * so database hydration pays a real round trip. Needs a PostgreSQL, so it is only available when
+ * {@code -Dhydration.url} is set, {@code -Dhydration.user} and {@code -Dhydration.password} default to the Dev Services
+ * credentials.
+ */
+final class PropertyTable implements AutoCloseable {
+
+    private static final String URL = System.getProperty("hydration.url");
+
+    private final Connection connection;
+
+    private PropertyTable(Connection connection) {
+        this.connection = connection;
+    }
+
+    static boolean enabled() {
+        return URL != null;
+    }
+
+    static PropertyTable load(List<Property> properties) throws SQLException {
+        Connection connection = DriverManager.getConnection(URL, System.getProperty("hydration.user", "quarkus"),
+                System.getProperty("hydration.password", "quarkus"));
+        try (Statement statement = connection.createStatement()) {
+            // Dropped with the connection
+            statement.execute("CREATE TEMPORARY TABLE benchmark_properties "
+                    + "(id text PRIMARY KEY, title text, description text, single_line text)");
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO benchmark_properties (id, title, description, single_line) VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < properties.size(); i++) {
+                Property property = properties.get(i);
+                insert.setString(1, property.getId());
+                insert.setString(2, property.getTitle());
+                insert.setString(3, property.getDescription());
+                insert.setString(4, property.getSingleLine());
+                insert.addBatch();
+                if (i % 1000 == 999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE benchmark_properties");
+        }
+        return new PropertyTable(connection);
+    }
+
+    /**
+     * Loads the properties with one query and returns them in the order of the ids, ids without a row are skipped
+     */
+    synchronized List<Property> findByIdsOrdered(List<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Property> byId = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, title, description, single_line FROM benchmark_properties WHERE id = ANY (?)")) {
+            select.setArray(1, connection.createArrayOf("text", ids.toArray()));
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    byId.put(rows.getString(1), Property.builder()
+                            .id(rows.getString(1))
+                            .title(rows.getString(2))
+                            .description(rows.getString(3))
+                            .singleLine(rows.getString(4))
+                            .build());
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to load properties " + ids, e);
+        }
+        return ids.stream()
+                .distinct()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+}
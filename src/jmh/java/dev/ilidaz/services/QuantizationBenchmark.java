@@ -0,0 +1,107 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Top-5 search of the {@link HnswEmbeddingStore} with float vectors against int8 codes re-ranked exactly.
+ * Recall@5 against an exact scan, the latency of both, the memory of the vectors and the size of the index files are
+ * printed after the run.
+ * With {@code -Dpgvector.url=jdbc:postgresql://localhost:5432/quarkus} the top-5 overlap with pgvector on the same
+ * vectors is printed as well, see {@link PgVectorOverlap}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuantizationBenchmark {
+
+    @Param({"NONE", "INT8"})
+    Quantization quantization;
+
+    @Param({"10000"})
+    int vectors;
+
+    /**
+     * Dimension of snowflake-arctic-embed2
+     */
+    @Param({"1024"})
+    int dimension;
+
+    private Path directory;
+    private HnswEmbeddingStore store;
+    private List<Embedding> queries;
+    private PgVectorOverlap pgvector;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        Corpus corpus = new Corpus(vectors, 3, 256, 42);
+        FakeEmbeddingModel model = new FakeEmbeddingModel(dimension);
+        directory = Files.createTempDirectory("hnsw");
+        store = new HnswEmbeddingStore(dimension, 16, 200, 64, directory.resolve("hnsw.index"), 0, quantization, 4, 0.2);
+        store.open();
+        List<TextSegment> segments = corpus.segments();
+        List<Embedding> embeddings = model.embedAll(segments).content();
+        List<String> ids = store.addAll(embeddings, segments);
+        if (PgVectorOverlap.enabled()) {
+            pgvector = PgVectorOverlap.load(ids, embeddings);
+        }
+        queries = corpus.queries.stream().map(query -> Embedding.from(model.vector(query.text()))).toList();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, SQLException {
+        System.out.println(store.recall(5, 500));
+        if (pgvector != null) {
+            System.out.println(pgvector.overlap(store, queries, 5));
+            pgvector.close();
+        }
+        store.close();
+        // The vector file is mapped in chunks of 16384 vectors, the unused end of the last chunk is a sparse hole
+        try (Stream<Path> files = Files.list(directory)) {
+            System.out.println(files.sorted()
+                    .map(file -> "%s %s MB".formatted(file.getFileName(), file.toFile().length() / (1024 * 1024)))
+                    .collect(Collectors.joining(", ", "on disk: ", "")));
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public EmbeddingSearchResult<TextSegment> search() {
+        return store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(queries.get(Math.floorMod(next++, queries.size())))
+                .maxResults(5)
+                .build());
+    }
+}
@@ -0,0 +1,129 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.AugmentationRequest;
+import dev.langchain4j.rag.AugmentationResult;
+import dev.langchain4j.rag.query.Metadata;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search and chat retrieval over an in-memory store and the {@link FakeEmbeddingModel}.
+ * Query embeddings are cached after the first round of queries, as frequent queries are in production,
+ * so the numbers are dominated by the vector search, reranking and compression.
+ * {@link #find} runs with both {@link Hydration} modes. Database hydration needs a PostgreSQL, see {@link PropertyTable},
+ * without one pass {@code -p hydration=METADATA}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"1000", "10000"})
+    int properties;
+
+    private Corpus corpus;
+    private FakeEmbeddingModel model;
+    private EmbeddingStore<TextSegment> store;
+    private SearchFixture fixture;
+    private int next;
+
+    /**
+     * Search service hydrating its results in one of the modes, only the hydrating benchmark depends on it
+     */
+    @State(Scope.Benchmark)
+    public static class Hydrated {
+
+        @Param({"METADATA", "DATABASE"})
+        Hydration hydration;
+
+        private PropertyTable table;
+        private SearchFixture fixture;
+
+        @Setup
+        public void setUp(SearchBenchmark benchmark) throws SQLException {
+            if (hydration == Hydration.DATABASE) {
+                if (!PropertyTable.enabled()) {
+                    throw new IllegalStateException("Database hydration needs -Dhydration.url of a PostgreSQL, "
+                            + "e.g. jdbc:postgresql://localhost:5432/quarkus, or -p hydration=METADATA");
+                }
+                table = PropertyTable.load(benchmark.corpus.properties);
+            }
+            fixture = new SearchFixture(benchmark.corpus, benchmark.store, benchmark.model, hydration,
+                    table == null ? null : table::findByIdsOrdered);
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException {
+            fixture.close();
+            if (table != null) {
+                table.close();
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        corpus = new Corpus(properties, 3, 256, 42);
+        model = new FakeEmbeddingModel(256);
+        store = SearchFixture.store(model, corpus.segments());
+        fixture = new SearchFixture(corpus, store, model);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public List<Property> find(Hydrated hydrated) {
+        return hydrated.fixture.searchService.find(nextQuery());
+    }
+
+    @Benchmark
+    public AugmentationResult augment() {
+        return fixture.augmentor.augment(request(nextQuery()));
+    }
+
+    /**
+     * Retrieval of the augmentor the bot uses, which over-fetches and collapses chunks of one listing
+     */
+    @Benchmark
+    public AugmentationResult chatAugment() {
+        return fixture.chatAugmentor.augment(request(nextQuery()));
+    }
+
+    @Benchmark
+    public List<String> lexicalSearch() {
+        return fixture.lexicalIndex.search(nextQuery(), 5);
+    }
+
+    private String nextQuery() {
+        return corpus.queries.get(Math.floorMod(next++, corpus.queries.size())).text();
+    }
+
+    private static AugmentationRequest request(String question) {
+        UserMessage message = UserMessage.from(question);
+        return new AugmentationRequest(message, Metadata.from(message, "benchmark", List.of()));
+    }
+}
@@ -0,0 +1,95 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Search services constructed by hand, without CDI, against an embedding store and model of the benchmark.
+ * Chat, enrichment and the caches of the GraphQL paths are not wired, the benchmarks only search.
+ * Hits are hydrated from segment metadata unless a database is given, hybrid search is off, it would query the database
+ * for the lexical hits.
+ */
+final class SearchFixture implements AutoCloseable {
+
+    final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+    final LexicalIndex lexicalIndex;
+    final SearchService searchService;
+    final PropertyRetrievalAugmentor augmentor;
+    final RetrievalAugmentor chatAugmentor;
+
+    /**
+     * @param corpus Listings of the lexical index, which extracts regions from queries
+     * @param store  Store holding the segments of the corpus
+     * @param model  Model behind the query embedding cache
+     */
+    SearchFixture(Corpus corpus, EmbeddingStore<TextSegment> store, EmbeddingModel model) {
+        this(corpus, store, model, Hydration.METADATA, null);
+    }
+
+    /**
+     * @param hydration Where the search results are hydrated from
+     * @param database  Loads properties by id in the order of the ids, in place of Hibernate, needed for
+     *                  {@link Hydration#DATABASE}
+     */
+    SearchFixture(Corpus corpus, EmbeddingStore<TextSegment> store, EmbeddingModel model, Hydration hydration,
+                  Function<List<String>, List<Property>> database) {
+        StartupTimings timings = new StartupTimings(registry);
+        lexicalIndex = new LexicalIndex(timings, true, Optional.empty(), Duration.ofHours(24), 0.2);
+        corpus.properties.forEach(lexicalIndex::index);
+
+        SearchMetrics metrics = new SearchMetrics(registry);
+        DownstreamLimiter limiter = new DownstreamLimiter(32, 16, 20, 16, Duration.ofSeconds(5));
+        CachedEmbeddingModel cachedModel = new CachedEmbeddingModel(model, timings, 10_000, Duration.ofHours(1),
+                Optional.empty(), registry);
+        SearchFilterExtractor filterExtractor = new SearchFilterExtractor(lexicalIndex, true);
+        Reranker reranker = new Reranker(new LexicalScoringModel(lexicalIndex), virtualThreads, metrics,
+                true, 20, 5, 50, registry);
+        ContentCompressor compressor = new ContentCompressor(lexicalIndex, metrics, true, 3, 0.9, 800, registry);
+
+        searchService = new SearchService(store, cachedModel, virtualThreads, null, null, null, limiter, null,
+                lexicalIndex, null, metrics, filterExtractor, null, hydration, false, 60, 3, 100, 50, 8, 500,
+                Duration.ofSeconds(30)) {
+            @Override
+            List<Property> load(List<String> ids) {
+                if (database == null) {
+                    throw new IllegalStateException("No database to load properties " + ids + " from");
+                }
+                return database.apply(ids);
+            }
+        };
+        augmentor = new PropertyRetrievalAugmentor(store, cachedModel, limiter, reranker, compressor, metrics,
+                filterExtractor, 3);
+        chatAugmentor = new PropertyRetrievalAugmentorSupplier(store, cachedModel, lexicalIndex, reranker, compressor,
+                metrics, filterExtractor, limiter, false, 60, 3).get();
+    }
+
+    /**
+     * @return In-memory store holding the segments with their embeddings by the model
+     */
+    static EmbeddingStore<TextSegment> store(EmbeddingModel model, List<TextSegment> segments) {
+        InMemoryEmbeddingStore<TextSegment> store = new InMemoryEmbeddingStore<>();
+        for (int from = 0; from < segments.size(); from += 1000) {
+            List<TextSegment> batch = segments.subList(from, Math.min(from + 1000, segments.size()));
+            store.addAll(model.embedAll(batch).content(), batch);
+        }
+        return store;
+    }
+
+    @Override
+    public void close() {
+        virtualThreads.shutdownNow();
+    }
+}
@@ -0,0 +1,95 @@
+package dev.ilidaz.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of bursts of concurrent searches, in requests per second, on virtual threads against a worker pool
+ * of 200 threads, the default maximum of the Quarkus worker pool. Every query misses the embedding cache and waits
+ * for the fake server, so requests spend most of their time blocked like during a burst of chats.
+ * The worker pool takes a wave per 200 requests of a burst, virtual threads wait for all downstream calls at once
+ * until the CPU is busy. The service is called directly, VirtualThreadLoadTest sends the requests through the
+ * GraphQL and websocket endpoints of the running application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(VirtualThreadLoadBenchmark.REQUESTS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadLoadBenchmark {
+
+    static final int REQUESTS = 500;
+    private static final int WORKER_POOL_SIZE = 200;
+
+    @Param({"virtual", "worker-pool"})
+    String threads;
+
+    /**
+     * Round trip of a downstream call, 50 ms like the embedding server and 500 ms like a short LLM answer
+     */
+    @Param({"50", "500"})
+    int latencyMillis;
+
+    private Corpus corpus;
+    private SearchFixture fixture;
+    private ExecutorService executor;
+    private long next;
+
+    @Setup
+    public void setUp() {
+        // A small corpus keeps the in-memory vector search cheap, pgvector runs it on the database server
+        corpus = new Corpus(200, 3, 256, 42);
+        FakeEmbeddingModel server = new FakeEmbeddingModel(256, Duration.ofMillis(latencyMillis), Duration.ZERO);
+        fixture = new SearchFixture(corpus, SearchFixture.store(new FakeEmbeddingModel(256), corpus.segments()), server);
+        executor = threads.equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(WORKER_POOL_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        fixture.close();
+    }
+
+    /**
+     * @return Number of properties found by all requests of the burst
+     */
+    @Benchmark
+    public int burst() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> requests = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            // A distinct query per request, so every one of them waits for the embedding server
+            String query = corpus.queries.get(i % corpus.queries.size()).text() + " " + next++;
+            requests.add(executor.submit(() -> fixture.searchService.find(query).size()));
+        }
+
+        int found = 0;
+        for (Future<Integer> request : requests) {
+            found += request.get();
+        }
+        return found;
+    }
+}
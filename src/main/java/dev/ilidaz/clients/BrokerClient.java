@@ -0,0 +1,28 @@
+package dev.ilidaz.clients;
+
+import dev.ilidaz.clients.dtos.BrokerPropertyDto;
+import dev.ilidaz.clients.dtos.PropertyFilterDto;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.faulttolerance.Timeout;
+
+import java.util.List;
+
+/**
+ * {@link GraphQLApi} calls guarded by a timeout and a circuit breaker.
+ * The typesafe client interface is not intercepted, so the fault tolerance lives on this bean.
+ * Values can be overridden with {@code dev.ilidaz.clients.BrokerClient/properties/Timeout/value} and alike.
+ */
+@ApplicationScoped
+public class BrokerClient {
+
+    @Inject
+    GraphQLApi graphQLApi;
+
+    @Timeout(2000)
+    @CircuitBreaker(requestVolumeThreshold = 20, failureRatio = 0.5, delay = 10000)
+    public List<BrokerPropertyDto> properties(List<String> ids) {
+        return graphQLApi.properties(new PropertyFilterDto(ids));
+    }
+}
@@ -0,0 +1,18 @@
+package dev.ilidaz.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportJobDto {
+    private String id;
+    private ImportJobStatus status;
+    private int total;
+    private int done;
+    private int failed;
+}
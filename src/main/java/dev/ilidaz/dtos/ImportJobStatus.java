@@ -0,0 +1,16 @@
+package dev.ilidaz.dtos;
+
+public enum ImportJobStatus {
+    /**
+     * Some properties of the job are still waiting in the write-behind queue or being embedded
+     */
+    PENDING,
+    /**
+     * All properties are stored and searchable
+     */
+    DONE,
+    /**
+     * At least one batch of the job failed, its properties are embedded again by the next write or sync
+     */
+    FAILED
+}
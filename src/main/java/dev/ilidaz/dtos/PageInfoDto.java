@@ -0,0 +1,17 @@
+package dev.ilidaz.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class PageInfoDto {
+    private String startCursor;
+    private String endCursor;
+    private boolean hasPreviousPage;
+    private boolean hasNextPage;
+}
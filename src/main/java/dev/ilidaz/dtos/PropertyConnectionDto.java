@@ -0,0 +1,21 @@
+package dev.ilidaz.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class PropertyConnectionDto {
+    private List<PropertyEdgeDto> edges;
+    private PageInfoDto pageInfo;
+    /**
+     * Number of ranked results across all pages
+     */
+    private int totalCount;
+}
@@ -0,0 +1,20 @@
+package dev.ilidaz.dtos;
+
+import dev.ilidaz.entities.Property;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class PropertyEdgeDto {
+    private String cursor;
+    /**
+     * Cosine similarity of the best matching chunk, null for properties found only by keywords
+     */
+    private Double score;
+    private Property node;
+}
@@ -0,0 +1,14 @@
+package dev.ilidaz.dtos;
+
+/**
+ * Fields of {@link dev.ilidaz.entities.Property} a paginated search fills in
+ */
+public enum PropertyField {
+    ID,
+    TITLE,
+    /**
+     * Only stored in the database, requesting it loads every page with one query
+     */
+    DESCRIPTION,
+    SINGLE_LINE
+}
@@ -16,4 +16,8 @@ public class SearchResponseDto {
     private String message;
     private List<BrokerPropertyDto> properties;
     private String messageId;
+    /**
+     * True for streamed frames carrying only the next chunk of the message
+     */
+    private boolean partial;
 }
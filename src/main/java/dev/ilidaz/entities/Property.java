@@ -10,7 +10,20 @@ import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Getter
 @Setter
@@ -19,6 +32,32 @@ import java.util.List;
 @Builder
 @Entity(name = "property_ai")
 public class Property extends PanacheEntityBase {
+    private static final CSVFormat CSV_LINE_FORMAT = CSVFormat.newFormat(';');
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    /**
+     * Version of the segments built from a property, part of the content hash. Bump it whenever the segment text or
+     * metadata changes, e.g. version 2 added the region and type keys, so the next sync embeds every row again.
+     */
+    public static final int SEGMENT_VERSION = 2;
+    /**
+     * Words of titles and queries naming a property type, mapped to the type
+     */
+    public static final Map<String, String> TYPES = Map.ofEntries(
+            Map.entry("apartment", "apartment"), Map.entry("apartments", "apartment"),
+            Map.entry("flat", "apartment"), Map.entry("flats", "apartment"),
+            Map.entry("house", "house"), Map.entry("houses", "house"),
+            Map.entry("villa", "villa"), Map.entry("villas", "villa"),
+            Map.entry("studio", "studio"), Map.entry("studios", "studio"),
+            Map.entry("penthouse", "penthouse"), Map.entry("penthouses", "penthouse"),
+            Map.entry("townhouse", "townhouse"), Map.entry("townhouses", "townhouse"),
+            Map.entry("cottage", "cottage"), Map.entry("cottages", "cottage"),
+            Map.entry("bungalow", "bungalow"), Map.entry("bungalows", "bungalow"),
+            Map.entry("duplex", "duplex"),
+            Map.entry("loft", "loft"), Map.entry("lofts", "loft"),
+            Map.entry("land", "land"), Map.entry("plot", "land"), Map.entry("plots", "land"),
+            Map.entry("office", "office"), Map.entry("offices", "office")
+    );
+
     @Id
     @Column(name = "id")
     public String id;
@@ -28,32 +67,143 @@ public class Property extends PanacheEntityBase {
     public String description;
     @Column(name = "single_line")
     public String singleLine;
+    @Column(name = "content_hash")
+    public String contentHash;
+    // Hash of saved content whose segments are not stored yet, it becomes the content hash once they are
+    @Column(name = "pending_hash")
+    public String pendingHash;
+    @Column(name = "sync_run")
+    public Long syncRun;
 
     public static List<Property> searchByTitleLike(String title) {
         return find("title like ?1", "%" + title + "%").list();
     }
 
+    /**
+     * Loads properties with a single query and returns them in the order of the given ids.
+     * Ids without a stored property are skipped.
+     */
+    public static List<Property> findByIdsOrdered(List<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Property> byId = Property.<Property>list("id in ?1", ids).stream()
+                .collect(Collectors.toMap(Property::getId, Function.identity()));
+        return ids.stream()
+                .distinct()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Loads the stored content hashes of the given ids with a single query.
+     * Stored properties without a hash are mapped to null.
+     */
+    public static Map<String, String> findContentHashes(Collection<String> ids) {
+        Map<String, String> hashes = new HashMap<>();
+        if (ids.isEmpty()) {
+            return hashes;
+        }
+        getEntityManager()
+                .createQuery("select p.id, p.contentHash from property_ai p where p.id in :ids", Object[].class)
+                .setParameter("ids", ids)
+                .getResultList()
+                .forEach(row -> hashes.put((String) row[0], (String) row[1]));
+        return hashes;
+    }
+
+    /**
+     * Ids of up to limit properties which were not seen by the given sync run.
+     * Run ids are start times, properties written by mutations after the run started carry a later time and are kept.
+     */
+    public static List<String> findIdsNotSyncedBy(long run, int limit) {
+        return getEntityManager()
+                .createQuery("select p.id from property_ai p where p.syncRun is null or p.syncRun < :run", String.class)
+                .setParameter("run", run)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * Area of the property: the last comma separated part of singleLine which has words without digits,
+     * so house numbers and postcodes are skipped. Lowercased, words separated by single spaces.
+     */
+    public String region() {
+        if (singleLine == null) {
+            return null;
+        }
+        String[] parts = singleLine.split(",");
+        for (int i = parts.length - 1; i >= 0; i--) {
+            String region = normalizeRegion(parts[i]);
+            if (region != null) {
+                return region;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lowercases the words of a region name and drops words with digits
+     *
+     * @return Normalized region, null if no word is left
+     */
+    public static String normalizeRegion(String region) {
+        if (region == null) {
+            return null;
+        }
+        String normalized = Arrays.stream(NON_WORD.split(region.toLowerCase(Locale.ROOT)))
+                .filter(word -> !word.isEmpty() && word.chars().noneMatch(Character::isDigit))
+                .collect(Collectors.joining(" "));
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    /**
+     * First word of the title naming a type in {@link #TYPES}
+     */
+    public String type() {
+        if (title == null) {
+            return null;
+        }
+        return Arrays.stream(NON_WORD.split(title.toLowerCase(Locale.ROOT)))
+                .map(TYPES::get)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * SHA-256 of the embedded columns and the {@link #SEGMENT_VERSION}, so unchanged rows can be skipped without
+     * embedding them again
+     */
+    public String computeContentHash() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte) SEGMENT_VERSION);
+            for (String value : new String[]{title, description, singleLine}) {
+                digest.update(Objects.toString(value, "").getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static Property fromCsvLine(String line) {
         Property property = new Property();
 
         try {
-            // Add error tolerance to the parser
-            CSVFormat format = CSVFormat.newFormat(';');
-
             // Try to fix unclosed quotes by appending a quote if needed
             if (countOccurrences(line, '"') % 2 != 0) {
                 line = line + "\"";
             }
 
-            CSVParser parser = CSVParser.parse(line, format);
+            CSVParser parser = CSVParser.parse(line, CSV_LINE_FORMAT);
 
             // Get the first record
             for (CSVRecord record : parser) {
-                if (record.size() > 0) property.setId(record.get(0));
-                if (record.size() > 1) property.setTitle(record.get(1));
-                if (record.size() > 2) property.setDescription(record.get(2));
-                if (record.size() > 3) property.setSingleLine(record.get(3));
-                break; // Only process the first record
+                return fromCsvRecord(record); // Only process the first record
             }
 
         } catch (IOException e) {
@@ -70,6 +220,18 @@ public class Property extends PanacheEntityBase {
         return property;
     }
 
+    /**
+     * Maps the id;title;description;singleLine columns of a record, missing trailing columns stay null
+     */
+    public static Property fromCsvRecord(CSVRecord record) {
+        Property property = new Property();
+        if (record.size() > 0) property.setId(record.get(0));
+        if (record.size() > 1) property.setTitle(record.get(1));
+        if (record.size() > 2) property.setDescription(record.get(2));
+        if (record.size() > 3) property.setSingleLine(record.get(3));
+        return property;
+    }
+
     private static String cleanValue(String value) {
         if (value == null) return "";
         value = value.trim();
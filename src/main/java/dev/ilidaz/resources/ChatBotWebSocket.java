@@ -1,13 +1,17 @@
 package dev.ilidaz.resources;
 
 import dev.ilidaz.dtos.SearchResponseDto;
-import dev.ilidaz.services.BotService;
+import dev.ilidaz.services.ConversationMemoryProvider;
 import dev.ilidaz.services.SearchService;
 import io.quarkus.websockets.next.OnClose;
 import io.quarkus.websockets.next.OnOpen;
 import io.quarkus.websockets.next.OnTextMessage;
 import io.quarkus.websockets.next.WebSocket;
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.common.annotation.RunOnVirtualThread;
+import io.smallrye.mutiny.Multi;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.util.Collections;
 import java.util.UUID;
@@ -18,43 +22,51 @@ public class ChatBotWebSocket {
     @Inject
     SearchService searchService;
 
-    private final ThreadLocal<String> lastMessageId = new ThreadLocal<>();
+    @Inject
+    ConversationMemoryProvider memories;
+
+    @ConfigProperty(name = "chatbot.streaming.enabled", defaultValue = "false")
+    boolean streaming;
 
     @OnOpen
     public SearchResponseDto onOpen() {
         // Generate a unique message ID for this response
         String messageId = UUID.randomUUID().toString();
-        SearchResponseDto response = new SearchResponseDto(
+
+        return new SearchResponseDto(
                 "Hello, I'm Bob, how can I help you?",
                 Collections.emptyList(),
-                messageId
+                messageId,
+                false
         );
-
-        lastMessageId.set(messageId);
-
-        return response;
     }
 
 
     @OnTextMessage
-    public SearchResponseDto onMessage(String message) {
+    @RunOnVirtualThread
+    public Multi<SearchResponseDto> onMessage(String message, WebSocketConnection connection) {
         // Generate a unique message ID for this response
         String messageId = UUID.randomUUID().toString();
 
+        // The conversation memory lives as long as the connection
+        if (streaming) {
+            // Streamed answers only subscribe here, the tokens and enrichment don't hold this thread
+            return searchService.chatStream(connection.id(), message, messageId);
+        }
+
         // Get search response from service
-        SearchResponseDto response = searchService.chat(message);
+        SearchResponseDto response = searchService.chat(connection.id(), message);
 
         // Set message ID to avoid duplication
         response.setMessageId(messageId);
-        lastMessageId.set(messageId);
 
-        return response;
+        return Multi.createFrom().item(response);
     }
 
     @OnClose
-    public void onClose() {
+    public void onClose(WebSocketConnection connection) {
         // Clean up resources
-        lastMessageId.remove();
+        memories.evict(connection.id());
     }
 
-}
\ No newline at end of file
+}
@@ -1,18 +1,44 @@
 package dev.ilidaz.resources;
 
+import dev.ilidaz.dtos.ImportJobDto;
 import dev.ilidaz.dtos.PropertyDto;
-import dev.ilidaz.services.ImportService;
+import dev.ilidaz.services.PropertyImportQueue;
+import io.smallrye.common.annotation.RunOnVirtualThread;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.graphql.GraphQLApi;
 import org.eclipse.microprofile.graphql.Mutation;
+import org.eclipse.microprofile.graphql.Query;
+
+import java.util.List;
 
 @GraphQLApi
 public class ImportResource {
     @Inject
-    ImportService importService;
+    PropertyImportQueue importQueue;
+
+    /**
+     * Queues a property for import
+     *
+     * @return Id of the import job, see {@link #importJob(String)}
+     */
+    @Mutation
+    public String importProperty(PropertyDto data) {
+        return importQueue.submit(List.of(data));
+    }
 
+    /**
+     * Queues properties for import, they are stored and embedded in batches
+     *
+     * @return Id of the import job, see {@link #importJob(String)}
+     */
     @Mutation
-    public boolean importProperty(PropertyDto data) {
-        return importService.importProperty(data);
+    public String importProperties(List<PropertyDto> data) {
+        return importQueue.submit(data);
+    }
+
+    @Query
+    @RunOnVirtualThread
+    public ImportJobDto importJob(String id) {
+        return importQueue.job(id).orElse(null);
     }
 }
@@ -1,12 +1,21 @@
 package dev.ilidaz.resources;
 
+import dev.ilidaz.dtos.PropertyConnectionDto;
+import dev.ilidaz.dtos.PropertyField;
 import dev.ilidaz.entities.Property;
+import dev.ilidaz.services.SearchFilter;
 import dev.ilidaz.services.SearchService;
+import io.smallrye.common.annotation.RunOnVirtualThread;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.graphql.DefaultValue;
+import org.eclipse.microprofile.graphql.Description;
 import org.eclipse.microprofile.graphql.GraphQLApi;
 import org.eclipse.microprofile.graphql.Query;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 @GraphQLApi
 public class SearchResource {
@@ -14,7 +23,42 @@ public class SearchResource {
     SearchService searchService;
 
     @Query
-    public List<Property> search(String search) {
-        return searchService.find(search);
+    @RunOnVirtualThread
+    public List<Property> search(
+            String search,
+            @Description("Area of the properties, the last part of the address without numbers, e.g. \"london\"") String region,
+            @Description("Property type, e.g. \"apartment\" or \"villa\"") String type
+    ) {
+        String normalizedType = normalize(type);
+        return searchService.find(search, new SearchFilter(
+                Property.normalizeRegion(region),
+                normalizedType == null ? null : Property.TYPES.getOrDefault(normalizedType, normalizedType)));
+    }
+
+    @Query
+    @RunOnVirtualThread
+    @Description("Searches several queries at once, results are in the order of the queries")
+    public List<List<Property>> searchMany(List<String> queries) {
+        return searchService.findMany(queries);
+    }
+
+    @Query
+    @RunOnVirtualThread
+    @Description("Pages through properties similar to the query, best first; following pages reuse the ranking of the first one")
+    public PropertyConnectionDto searchPage(
+            String search,
+            @DefaultValue("10") int first,
+            @Description("Cursor of the last edge of the previous page") String after,
+            @DefaultValue("0.8") @Description("Minimum cosine similarity of vector hits") double minScore,
+            @Description("Node fields to fill in, all by default; without DESCRIPTION the database is not queried") List<PropertyField> fields
+    ) {
+        Set<PropertyField> requested = fields == null || fields.isEmpty()
+                ? EnumSet.allOf(PropertyField.class)
+                : EnumSet.copyOf(fields);
+        return searchService.page(search, first, after, minScore, requested);
+    }
+
+    private static String normalize(String value) {
+        return value == null || value.isBlank() ? null : value.trim().toLowerCase(Locale.ROOT);
     }
 }
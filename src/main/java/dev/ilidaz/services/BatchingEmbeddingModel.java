@@ -0,0 +1,142 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.quarkus.logging.Log;
+import io.quarkus.virtual.threads.VirtualThreads;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.faulttolerance.Timeout;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Embedding model collecting concurrent single text {@link #embed(String)} calls for a short window
+ * and sending them to the embedding server as one embedAll request.
+ * Identical texts within a window share one embedding.
+ */
+@Batched
+@ApplicationScoped
+public class BatchingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final DownstreamLimiter limiter;
+    private final SearchMetrics metrics;
+    private final ExecutorService virtualThreads;
+    private final boolean enabled;
+    private final long windowMillis;
+    private final int maxBatchSize;
+
+    private Map<String, CompletableFuture<Embedding>> pending = new LinkedHashMap<>();
+
+    BatchingEmbeddingModel(
+            EmbeddingModel delegate,
+            DownstreamLimiter limiter,
+            SearchMetrics metrics,
+            @VirtualThreads ExecutorService virtualThreads,
+            @ConfigProperty(name = "embedding.batch.enabled", defaultValue = "true") boolean enabled,
+            @ConfigProperty(name = "embedding.batch.window-millis", defaultValue = "3") long windowMillis,
+            @ConfigProperty(name = "embedding.batch.max-size", defaultValue = "32") int maxBatchSize
+    ) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.virtualThreads = virtualThreads;
+        this.enabled = enabled;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Embeds a query text, guarded by a timeout and a circuit breaker so a hung embedding server fails searches fast
+     */
+    @Override
+    @Timeout(3000)
+    @CircuitBreaker(requestVolumeThreshold = 20, failureRatio = 0.5, delay = 10000)
+    public Response<Embedding> embed(String text) {
+        if (!enabled) {
+            return limiter.call(Downstream.EMBEDDING, () -> delegate.embed(text));
+        }
+
+        // Unlike join, get is interrupted when the timeout expires
+        try {
+            return Response.from(enqueue(text).get());
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while embedding", e);
+        }
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return embed(textSegment.text());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return limiter.call(Downstream.EMBEDDING, () -> delegate.embedAll(textSegments));
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    private synchronized CompletableFuture<Embedding> enqueue(String text) {
+        boolean opened = pending.isEmpty();
+        CompletableFuture<Embedding> future = pending.computeIfAbsent(text, key -> new CompletableFuture<>());
+        if (pending.size() >= maxBatchSize) {
+            flush(pending);
+        } else if (opened) {
+            // The window is timed on the managed virtual thread executor, a sleeping virtual thread holds no carrier
+            Map<String, CompletableFuture<Embedding>> batch = pending;
+            virtualThreads.execute(() -> {
+                try {
+                    Thread.sleep(windowMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                flush(batch);
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Sends the batch unless it was already sent because it reached the maximum size
+     */
+    private synchronized void flush(Map<String, CompletableFuture<Embedding>> batch) {
+        if (batch != pending) {
+            return;
+        }
+        pending = new LinkedHashMap<>();
+        virtualThreads.execute(() -> embedBatch(batch));
+    }
+
+    private void embedBatch(Map<String, CompletableFuture<Embedding>> batch) {
+        try {
+            List<String> texts = new ArrayList<>(batch.keySet());
+            List<Embedding> embeddings = limiter.call(Downstream.EMBEDDING,
+                    () -> delegate.embedAll(texts.stream().map(TextSegment::from).toList())).content();
+            metrics.results("embedding.batch", texts.size());
+
+            for (int i = 0; i < texts.size(); i++) {
+                batch.get(texts.get(i)).complete(embeddings.get(i));
+            }
+        } catch (Exception e) {
+            Log.warn("Failed to embed batch of %s texts".formatted(batch.size()), e);
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package dev.ilidaz.services;
 
+import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
 import io.quarkiverse.langchain4j.RegisterAiService;
-import jakarta.enterprise.context.SessionScoped;
+import io.smallrye.mutiny.Multi;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.faulttolerance.Timeout;
 
 @RegisterAiService(retrievalAugmentor = PropertyRetrievalAugmentorSupplier.class) // no need to declare a retrieval augmentor here, it is automatically generated and discovered
-@SessionScoped
+@ApplicationScoped
 public interface BotService {
 
-    @SystemMessage("""
+    String SYSTEM_MESSAGE = """
             You are an AI named Bob helping to find ideal properties, which you have in a database.
             Your response must be polite, use the same language as the question, and be relevant to the question.
             You should always provide ID of the property, so client can find it through the search.
@@ -19,6 +23,17 @@ public interface BotService {
             
             Please, format ids from additional contents in json format: {"id": "UUID from additional content"}, so developer can find it in the database.
             Here's an example how it'll look like in a text "ID - 54d5dbc8-f2d1-49a5-985a-bde311a438bd"
-            """)
-    String chat(@UserMessage String question);
+            """;
+
+    /**
+     * Fails with a fault tolerance exception when the LLM takes too long or keeps failing,
+     * {@link SearchService} answers those with a degraded response
+     */
+    @SystemMessage(SYSTEM_MESSAGE)
+    @Timeout(30000)
+    @CircuitBreaker(requestVolumeThreshold = 10, failureRatio = 0.5, delay = 30000)
+    String chat(@MemoryId String conversationId, @UserMessage String question);
+
+    @SystemMessage(SYSTEM_MESSAGE)
+    Multi<String> chatStream(@MemoryId String conversationId, @UserMessage String question);
 }
@@ -0,0 +1,188 @@
+package dev.ilidaz.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Embedding model which keeps the vectors of recently embedded query texts.
+ * Texts are normalized before they are looked up and embedded, so "2 Bedroom  flat" and "2 bedroom flat" share one
+ * entry, whose vector doesn't depend on the spelling that missed first.
+ * Misses go through the {@link Batched} model, so concurrent misses share one request to the embedding server.
+ * Bulk {@link #embedAll(List)} calls from the import are passed through without caching.
+ * With search.snapshot.directory set, cached vectors are written on shutdown and restored on startup.
+ */
+@Cached
+@ApplicationScoped
+public class CachedEmbeddingModel implements EmbeddingModel {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // Version 2 holds vectors of the normalized texts, version 1 files are dropped
+    private static final int FILE_VERSION = 2;
+
+    private final EmbeddingModel delegate;
+    private final StartupTimings timings;
+    private final Cache<String, float[]> cache;
+    private final Optional<Path> snapshotFile;
+
+    CachedEmbeddingModel(
+            @Batched EmbeddingModel delegate,
+            StartupTimings timings,
+            @ConfigProperty(name = "embedding.cache.maximum-size", defaultValue = "10000") long maximumSize,
+            @ConfigProperty(name = "embedding.cache.expire-after-write", defaultValue = "PT1H") Duration expireAfterWrite,
+            @ConfigProperty(name = "search.snapshot.directory") Optional<Path> snapshotDirectory,
+            MeterRegistry registry
+    ) {
+        this.delegate = delegate;
+        this.timings = timings;
+        snapshotFile = snapshotDirectory.map(directory -> directory.resolve("embeddings.cache"));
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "embeddings");
+    }
+
+    /**
+     * Restores the vectors of the last run, so frequent queries skip the embedding model right after startup
+     */
+    void onStart(@Observes StartupEvent event) {
+        Optional<Path> file = snapshotFile.filter(Files::exists);
+        if (file.isEmpty()) {
+            return;
+        }
+        long started = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.get())))) {
+            int version = in.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported embedding cache version " + version);
+            }
+            int entries = in.readInt();
+            for (int entry = 0; entry < entries; entry++) {
+                String text = in.readUTF();
+                float[] vector = new float[in.readInt()];
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] = in.readFloat();
+                }
+                cache.put(text, vector);
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to restore cached embeddings from " + file.get(), e);
+            return;
+        }
+        timings.record("embedding-cache.snapshot", System.nanoTime() - started);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        snapshotFile.ifPresent(file -> {
+            Map<String, float[]> entries = Map.copyOf(cache.asMap());
+            try {
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                    out.writeInt(FILE_VERSION);
+                    out.writeInt(entries.size());
+                    for (Map.Entry<String, float[]> entry : entries.entrySet()) {
+                        out.writeUTF(entry.getKey());
+                        out.writeInt(entry.getValue().length);
+                        for (float value : entry.getValue()) {
+                            out.writeFloat(value);
+                        }
+                    }
+                }
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Log.warn("Failed to write cached embeddings to " + file, e);
+            }
+        });
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        String key = normalize(text);
+        float[] vector = cache.getIfPresent(key);
+        if (vector == null) {
+            // Embedded outside of the cache, a compute function would block the carrier thread while holding its lock.
+            // Concurrent misses of the same text still share the request of the batched model.
+            vector = delegate.embed(key).content().vector();
+            cache.put(key, vector);
+        }
+        return Response.from(Embedding.from(vector));
+    }
+
+    /**
+     * Embeds query texts, all of them missing from the cache with one embedAll request
+     *
+     * @return Embeddings in the order of the texts
+     */
+    public List<Embedding> embedQueries(List<String> texts) {
+        Set<String> keys = new LinkedHashSet<>();
+        texts.forEach(text -> keys.add(normalize(text)));
+        Map<String, float[]> vectors = new HashMap<>(cache.getAllPresent(keys));
+
+        List<String> missing = keys.stream().filter(key -> !vectors.containsKey(key)).toList();
+        if (!missing.isEmpty()) {
+            List<Embedding> embedded = delegate.embedAll(missing.stream().map(TextSegment::from).toList()).content();
+            for (int i = 0; i < missing.size(); i++) {
+                float[] vector = embedded.get(i).vector();
+                vectors.put(missing.get(i), vector);
+                cache.put(missing.get(i), vector);
+            }
+        }
+        return texts.stream().map(text -> Embedding.from(vectors.get(normalize(text)))).toList();
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return embed(textSegment.text());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).trim();
+        return WHITESPACE.matcher(normalized).replaceAll(" ");
+    }
+}
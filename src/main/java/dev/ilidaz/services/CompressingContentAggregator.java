@@ -0,0 +1,32 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Content aggregator compressing the aggregated contents of another aggregator with {@link ContentCompressor}
+ */
+public class CompressingContentAggregator implements ContentAggregator {
+
+    private final ContentAggregator delegate;
+    private final ContentCompressor compressor;
+
+    public CompressingContentAggregator(ContentAggregator delegate, ContentCompressor compressor) {
+        this.delegate = delegate;
+        this.compressor = compressor;
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        String query = queryToContents.keySet().stream()
+                .map(Query::text)
+                .collect(Collectors.joining(" "));
+        return compressor.compress(query, delegate.aggregate(queryToContents));
+    }
+}
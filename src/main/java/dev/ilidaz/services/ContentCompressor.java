@@ -0,0 +1,177 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Shrinks the retrieved listings before they are injected into the prompt.
+ * Every description is trimmed to its sentences most relevant to the query, near-identical listings are dropped
+ * and listings are added only while they fit the token budget.
+ * Token counts are estimated with {@link ImportService#CHARS_PER_TOKEN}.
+ */
+@ApplicationScoped
+public class ContentCompressor {
+
+    private final LexicalIndex lexicalIndex;
+    private final SearchMetrics metrics;
+    private final boolean enabled;
+    private final int maxSentences;
+    private final double duplicateSimilarity;
+    private final int maxTokens;
+    private final DistributionSummary retrievedTokens;
+    private final DistributionSummary promptTokens;
+
+    ContentCompressor(
+            LexicalIndex lexicalIndex,
+            SearchMetrics metrics,
+            @ConfigProperty(name = "chat.compression.enabled", defaultValue = "true") boolean enabled,
+            @ConfigProperty(name = "chat.compression.max-sentences", defaultValue = "3") int maxSentences,
+            @ConfigProperty(name = "chat.compression.duplicate-similarity", defaultValue = "0.9") double duplicateSimilarity,
+            @ConfigProperty(name = "chat.compression.max-tokens", defaultValue = "800") int maxTokens,
+            MeterRegistry registry
+    ) {
+        this.lexicalIndex = lexicalIndex;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.maxSentences = maxSentences;
+        this.duplicateSimilarity = duplicateSimilarity;
+        this.maxTokens = maxTokens;
+        retrievedTokens = DistributionSummary.builder("chat.prompt.context.tokens")
+                .description("Estimated tokens of the retrieved listings per request")
+                .tag("stage", "retrieved")
+                .register(registry);
+        promptTokens = DistributionSummary.builder("chat.prompt.context.tokens")
+                .description("Estimated tokens of the listings injected into the prompt per request")
+                .tag("stage", "compressed")
+                .register(registry);
+    }
+
+    /**
+     * @param query    Text of the user query
+     * @param contents Retrieved listings, best first
+     * @return Compressed listings, best first
+     */
+    public List<Content> compress(String query, List<Content> contents) {
+        return metrics.time(Stage.COMPRESSION, () -> compressWithinBudget(query, contents));
+    }
+
+    private List<Content> compressWithinBudget(String query, List<Content> contents) {
+        int retrieved = contents.stream().mapToInt(content -> tokens(content.textSegment().text())).sum();
+        retrievedTokens.record(retrieved);
+        if (!enabled) {
+            promptTokens.record(retrieved);
+            return contents;
+        }
+
+        List<Content> compressed = new ArrayList<>();
+        List<Set<String>> kept = new ArrayList<>();
+        int budget = maxTokens;
+        for (Content content : contents) {
+            Metadata metadata = content.textSegment().metadata();
+            String id = metadata.getString("id");
+            String singleLine = metadata.getString("singleLine");
+            String description = stripSuffix(content.textSegment().text(), singleLine, id);
+
+            Set<String> terms = new HashSet<>(LexicalIndex.tokenize(description));
+            if (kept.stream().anyMatch(other -> jaccard(terms, other) >= duplicateSimilarity)) {
+                continue;
+            }
+
+            String text = ImportService.segmentText(relevantSentences(query, description), singleLine, id);
+            int cost = tokens(text);
+            if (cost > budget && !compressed.isEmpty()) {
+                break;
+            }
+            budget -= cost;
+            kept.add(terms);
+            compressed.add(Content.from(TextSegment.from(text, metadata)));
+        }
+
+        int injected = compressed.stream().mapToInt(content -> tokens(content.textSegment().text())).sum();
+        promptTokens.record(injected);
+        Log.debugf("Prompt context compressed from %d to %d listings, ~%d to ~%d tokens",
+                contents.size(), compressed.size(), retrieved, injected);
+        return compressed;
+    }
+
+    /**
+     * Keeps the max-sentences best scoring sentences in their original order, or the first one if none matches
+     */
+    private String relevantSentences(String query, String description) {
+        List<String> sentences = sentences(description);
+        if (sentences.size() <= maxSentences) {
+            return description;
+        }
+
+        List<Double> scores = lexicalIndex.score(query, sentences);
+        List<Integer> best = IntStream.range(0, sentences.size())
+                .boxed()
+                .filter(i -> scores.get(i) > 0)
+                .sorted(Comparator.comparingDouble(i -> -scores.get(i)))
+                .limit(maxSentences)
+                .sorted()
+                .toList();
+        if (best.isEmpty()) {
+            return sentences.getFirst();
+        }
+        return String.join(" ", best.stream().map(sentences::get).toList());
+    }
+
+    static List<String> sentences(String text) {
+        List<String> sentences = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean end = c == '\n' || ((c == '.' || c == '!' || c == '?')
+                    && (i + 1 == text.length() || Character.isWhitespace(text.charAt(i + 1))));
+            if (end) {
+                addSentence(sentences, text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        addSentence(sentences, text.substring(start));
+        return sentences;
+    }
+
+    private static void addSentence(List<String> sentences, String sentence) {
+        String trimmed = sentence.strip();
+        if (!trimmed.isEmpty()) {
+            sentences.add(trimmed);
+        }
+    }
+
+    private static String stripSuffix(String text, String singleLine, String id) {
+        String suffix = ImportService.segmentText("", singleLine, id);
+        return text.endsWith(suffix) ? text.substring(0, text.length() - suffix.length()) : text;
+    }
+
+    private static double jaccard(Set<String> first, Set<String> second) {
+        if (first.isEmpty() && second.isEmpty()) {
+            return 1;
+        }
+        int common = 0;
+        for (String term : first) {
+            if (second.contains(term)) {
+                common++;
+            }
+        }
+        return (double) common / (first.size() + second.size() - common);
+    }
+
+    private static int tokens(String text) {
+        return (text.length() + ImportService.CHARS_PER_TOKEN - 1) / ImportService.CHARS_PER_TOKEN;
+    }
+}
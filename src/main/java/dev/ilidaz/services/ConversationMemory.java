@@ -0,0 +1,215 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Chat memory of one conversation holding the latest turns within a token budget.
+ * Turns pushed out of the window are handed to a summarizer, the summary is kept right after the system message.
+ * Tokens are estimated with {@link ImportService#CHARS_PER_TOKEN}.
+ */
+public class ConversationMemory implements ChatMemory {
+
+    private static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
+
+    private final Object id;
+    private final int maxTokens;
+    private final Consumer<ConversationMemory> summarize;
+
+    private SystemMessage systemMessage;
+    private String summary;
+    private final List<ChatMessage> window = new ArrayList<>();
+    private final List<ChatMessage> evicted = new ArrayList<>();
+    private int windowTokens;
+    private boolean summarizing;
+    // Incremented by clear, so a summary of turns from before it is dropped
+    private int generation;
+
+    /**
+     * @param summarize Called when turns were evicted, expected to call {@link #summarizeEvicted} asynchronously
+     */
+    ConversationMemory(Object id, int maxTokens, Consumer<ConversationMemory> summarize) {
+        this.id = id;
+        this.maxTokens = maxTokens;
+        this.summarize = summarize;
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        boolean evictedTurns;
+        synchronized (this) {
+            if (message instanceof SystemMessage system) {
+                systemMessage = system;
+                return;
+            }
+            window.add(message);
+            windowTokens += tokens(message);
+
+            // Evict whole turns, a window must not start with an answer
+            int before = evicted.size();
+            while (windowTokens > maxTokens && window.size() > 1) {
+                do {
+                    ChatMessage oldest = window.removeFirst();
+                    windowTokens -= tokens(oldest);
+                    evicted.add(oldest);
+                } while (window.size() > 1 && !(window.getFirst() instanceof UserMessage));
+            }
+            evictedTurns = evicted.size() > before;
+        }
+        if (evictedTurns) {
+            summarize.accept(this);
+        }
+    }
+
+    @Override
+    public synchronized List<ChatMessage> messages() {
+        List<ChatMessage> messages = new ArrayList<>(window.size() + 2);
+        if (systemMessage != null) {
+            messages.add(systemMessage);
+        }
+        if (summary != null) {
+            messages.add(AiMessage.from(SUMMARY_PREFIX + summary));
+        }
+        messages.addAll(window);
+        return messages;
+    }
+
+    /**
+     * @return Whether the conversation has no turns and no summary yet
+     */
+    synchronized boolean isEmpty() {
+        return summary == null && window.isEmpty() && evicted.isEmpty();
+    }
+
+    @Override
+    public synchronized void clear() {
+        summary = null;
+        window.clear();
+        evicted.clear();
+        windowTokens = 0;
+        generation++;
+    }
+
+    /**
+     * Folds the evicted turns and the previous summary into a new summary.
+     * Turns stay queued until the summary containing them is stored, so when the summarizer fails they are
+     * summarized together with the next evicted turns. Turns evicted while a summary is made are picked up by it.
+     *
+     * @param summarizer Turns a transcript into a summary
+     */
+    void summarizeEvicted(UnaryOperator<String> summarizer) {
+        synchronized (this) {
+            if (summarizing || evicted.isEmpty()) {
+                return;
+            }
+            summarizing = true;
+        }
+        try {
+            while (true) {
+                List<ChatMessage> turns;
+                String previous;
+                int started;
+                synchronized (this) {
+                    if (evicted.isEmpty()) {
+                        return;
+                    }
+                    turns = new ArrayList<>(evicted);
+                    previous = summary;
+                    started = generation;
+                }
+
+                String transcript = turns.stream()
+                        .map(message -> (message instanceof UserMessage ? "Customer: " : "Bob: ") + text(message))
+                        .collect(Collectors.joining("\n"));
+                String updated = summarizer.apply(previous == null ? transcript : SUMMARY_PREFIX + previous + "\n" + transcript);
+
+                synchronized (this) {
+                    if (generation != started) {
+                        return;
+                    }
+                    summary = updated;
+                    evicted.subList(0, turns.size()).clear();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                summarizing = false;
+            }
+        }
+    }
+
+    /**
+     * Messages to persist when the conversation is spilled, the summary is stored as its first message
+     */
+    synchronized List<ChatMessage> snapshot() {
+        List<ChatMessage> messages = new ArrayList<>();
+        if (summary != null) {
+            messages.add(AiMessage.from(SUMMARY_PREFIX + summary));
+        }
+        messages.addAll(evicted);
+        messages.addAll(window);
+        return messages;
+    }
+
+    /**
+     * Restores a conversation from {@link #snapshot()}
+     */
+    synchronized void restore(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            if (message instanceof AiMessage ai && ai.text() != null && ai.text().startsWith(SUMMARY_PREFIX) && window.isEmpty()) {
+                summary = ai.text().substring(SUMMARY_PREFIX.length());
+            } else {
+                window.add(message);
+                windowTokens += tokens(message);
+            }
+        }
+    }
+
+    /**
+     * Rough heap footprint of the held texts, two bytes per char plus object overhead per message
+     */
+    synchronized long estimatedBytes() {
+        long bytes = 64;
+        for (ChatMessage message : window) {
+            bytes += 64 + 2L * text(message).length();
+        }
+        for (ChatMessage message : evicted) {
+            bytes += 64 + 2L * text(message).length();
+        }
+        if (summary != null) {
+            bytes += 64 + 2L * summary.length();
+        }
+        return bytes;
+    }
+
+    private static int tokens(ChatMessage message) {
+        return (text(message).length() + ImportService.CHARS_PER_TOKEN - 1) / ImportService.CHARS_PER_TOKEN;
+    }
+
+    static String text(ChatMessage message) {
+        return switch (message) {
+            case UserMessage user -> user.contents().stream()
+                    .filter(TextContent.class::isInstance)
+                    .map(content -> ((TextContent) content).text())
+                    .collect(Collectors.joining(" "));
+            case AiMessage ai -> ai.text() == null ? "" : ai.text();
+            case SystemMessage system -> system.text();
+            default -> "";
+        };
+    }
+}
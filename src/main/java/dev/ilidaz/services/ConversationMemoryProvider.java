@@ -0,0 +1,173 @@
+package dev.ilidaz.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.virtual.threads.VirtualThreads;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Chat memories of {@link BotService} keyed by the WebSocket connection id.
+ * Every memory keeps a token bounded window with a summary of older turns, see {@link ConversationMemory}.
+ * Memories idle for longer than idle-timeout are evicted and, when a spill directory is configured,
+ * written to disk and restored on the next message of the same conversation.
+ */
+@ApplicationScoped
+public class ConversationMemoryProvider implements ChatMemoryProvider {
+
+    @Inject
+    ConversationSummarizer summarizer;
+
+    @Inject
+    @VirtualThreads
+    ExecutorService virtualThreads;
+
+    @Inject
+    DownstreamLimiter limiter;
+
+    private final int maxTokens;
+    private final Optional<Path> spillDirectory;
+    private final Cache<Object, ConversationMemory> memories;
+
+    ConversationMemoryProvider(
+            @ConfigProperty(name = "chat.memory.max-tokens", defaultValue = "1000") int maxTokens,
+            @ConfigProperty(name = "chat.memory.idle-timeout", defaultValue = "PT30M") Duration idleTimeout,
+            @ConfigProperty(name = "chat.memory.maximum-size", defaultValue = "10000") long maximumSize,
+            @ConfigProperty(name = "chat.memory.spill-directory") Optional<Path> spillDirectory,
+            MeterRegistry registry
+    ) {
+        this.maxTokens = maxTokens;
+        this.spillDirectory = spillDirectory;
+        memories = Caffeine.newBuilder()
+                .expireAfterAccess(idleTimeout)
+                .maximumSize(maximumSize)
+                .removalListener((Object id, ConversationMemory memory, RemovalCause cause) -> {
+                    if (memory != null && cause.wasEvicted()) {
+                        spill(id, memory);
+                    }
+                })
+                .build();
+
+        Gauge.builder("chat.memory.conversations", memories, Cache::estimatedSize)
+                .description("Conversations held in memory")
+                .register(registry);
+        Gauge.builder("chat.memory.heap", this, ConversationMemoryProvider::estimatedBytes)
+                .description("Estimated heap held by the conversation memories")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("chat.memory.heap.per.conversation", this, provider -> {
+                    long conversations = provider.memories.estimatedSize();
+                    return conversations == 0 ? 0 : provider.estimatedBytes() / conversations;
+                })
+                .description("Estimated heap held per open conversation")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @Override
+    public ChatMemory get(Object id) {
+        return memories.get(id, this::load);
+    }
+
+    /**
+     * Adds a turn answered without the bot, e.g. from the answer cache, so follow-up questions see it
+     */
+    public void record(Object id, String question, String answer) {
+        ChatMemory memory = get(id);
+        memory.add(UserMessage.from(question));
+        memory.add(AiMessage.from(answer));
+    }
+
+    /**
+     * @return Whether the conversation has earlier turns, held in memory or spilled to disk
+     */
+    public boolean hasHistory(Object id) {
+        ConversationMemory memory = memories.getIfPresent(id);
+        if (memory != null) {
+            return !memory.isEmpty();
+        }
+        return spillFile(id).filter(Files::exists).isPresent();
+    }
+
+    /**
+     * Drops the memory of a closed conversation without spilling it
+     */
+    public void evict(Object id) {
+        memories.invalidate(id);
+        spillFile(id).ifPresent(file -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                Log.warn("Failed to delete spilled conversation " + file, e);
+            }
+        });
+    }
+
+    private ConversationMemory load(Object id) {
+        ConversationMemory memory = new ConversationMemory(id, maxTokens, this::summarize);
+        Optional<Path> file = spillFile(id).filter(Files::exists);
+        if (file.isPresent()) {
+            try {
+                memory.restore(ChatMessageDeserializer.messagesFromJson(Files.readString(file.get())));
+                Files.delete(file.get());
+            } catch (IOException e) {
+                Log.warn("Failed to restore spilled conversation " + file.get(), e);
+            }
+        }
+        return memory;
+    }
+
+    private void spill(Object id, ConversationMemory memory) {
+        spillFile(id).ifPresent(file -> {
+            try {
+                Files.createDirectories(file.getParent());
+                Files.writeString(file, ChatMessageSerializer.messagesToJson(memory.snapshot()));
+            } catch (IOException e) {
+                Log.warn("Failed to spill conversation " + id, e);
+            }
+        });
+    }
+
+    private Optional<Path> spillFile(Object id) {
+        // Connection ids are generated by the server, anything else is not mapped to a file name
+        String name = id.toString();
+        if (!name.matches("[A-Za-z0-9-]+")) {
+            return Optional.empty();
+        }
+        return spillDirectory.map(directory -> directory.resolve(name + ".json"));
+    }
+
+    private void summarize(ConversationMemory memory) {
+        virtualThreads.execute(() -> {
+            try {
+                memory.summarizeEvicted(transcript -> limiter.call(Downstream.LLM, () -> summarizer.summarize(transcript)));
+            } catch (Exception e) {
+                Log.warn("Failed to summarize conversation " + memory.id() + ", its evicted turns stay queued", e);
+            }
+        });
+    }
+
+    private long estimatedBytes() {
+        return memories.asMap().values().stream()
+                .mapToLong(ConversationMemory::estimatedBytes)
+                .sum();
+    }
+}
@@ -0,0 +1,22 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.UserMessage;
+import io.quarkiverse.langchain4j.RegisterAiService;
+import jakarta.enterprise.context.ApplicationScoped;
+
+/**
+ * Condenses turns which fall out of the {@link ConversationMemory} window.
+ * Has no memory and no retrieval of its own.
+ */
+@RegisterAiService(chatMemoryProviderSupplier = RegisterAiService.NoChatMemoryProviderSupplier.class)
+@ApplicationScoped
+public interface ConversationSummarizer {
+
+    @SystemMessage("""
+            Summarize the conversation between a customer and Bob, an assistant helping to find properties.
+            Keep the customer's requirements (location, size, budget, features) and the ids of the properties discussed.
+            Answer with the summary only, in at most five sentences, in the language of the conversation.
+            """)
+    String summarize(@UserMessage String conversation);
+}
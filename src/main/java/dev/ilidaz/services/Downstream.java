@@ -0,0 +1,11 @@
+package dev.ilidaz.services;
+
+/**
+ * External services the search and chat paths block on
+ */
+public enum Downstream {
+    LLM,
+    EMBEDDING,
+    DATABASE,
+    BROKER
+}
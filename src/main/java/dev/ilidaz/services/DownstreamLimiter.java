@@ -0,0 +1,65 @@
+package dev.ilidaz.services;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.faulttolerance.exceptions.BulkheadException;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of concurrent calls to each {@link Downstream}.
+ * Requests run on virtual threads, so waiting for a permit is cheap and the limit protects the downstream
+ * service rather than our own thread pool.
+ * Calls waiting longer than acquire-timeout for a permit are rejected, so a hung downstream service doesn't
+ * queue up every request behind it.
+ */
+@ApplicationScoped
+public class DownstreamLimiter {
+
+    private final Map<Downstream, Semaphore> permits = new EnumMap<>(Downstream.class);
+    private final Duration acquireTimeout;
+
+    DownstreamLimiter(
+            @ConfigProperty(name = "downstream.llm.max-concurrency", defaultValue = "32") int llm,
+            @ConfigProperty(name = "downstream.embedding.max-concurrency", defaultValue = "16") int embedding,
+            @ConfigProperty(name = "downstream.database.max-concurrency", defaultValue = "20") int database,
+            @ConfigProperty(name = "downstream.broker.max-concurrency", defaultValue = "16") int broker,
+            @ConfigProperty(name = "downstream.acquire-timeout", defaultValue = "PT5S") Duration acquireTimeout
+    ) {
+        this.acquireTimeout = acquireTimeout;
+        permits.put(Downstream.LLM, new Semaphore(llm, true));
+        permits.put(Downstream.EMBEDDING, new Semaphore(embedding, true));
+        permits.put(Downstream.DATABASE, new Semaphore(database, true));
+        permits.put(Downstream.BROKER, new Semaphore(broker, true));
+    }
+
+    /**
+     * Runs the call once a permit of the downstream is available
+     *
+     * @param downstream Service the call goes to
+     * @param call       Blocking call
+     * @return Result of the call
+     * @throws BulkheadException if no permit became available within acquire-timeout
+     */
+    public <T> T call(Downstream downstream, Supplier<T> call) {
+        Semaphore semaphore = permits.get(downstream);
+        try {
+            if (!semaphore.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new BulkheadException("No %s permit available within %s".formatted(downstream, acquireTimeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + downstream, e);
+        }
+        try {
+            return call.get();
+        } finally {
+            semaphore.release();
+        }
+    }
+}
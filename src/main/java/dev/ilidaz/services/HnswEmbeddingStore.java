@@ -0,0 +1,1397 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsIn;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Alternative;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * In-process embedding store backed by an HNSW graph, replacing pgvector when {@code search.vector-store=hnsw}.
+ * Vectors are normalized and kept off-heap, so cosine similarity is a plain dot product.
+ * With {@code search.vector-quantization=int8} the graph is traversed on byte codes and only the best candidates
+ * are re-ranked with the exact vectors. The index file then holds the codes, the float vectors are only kept in a
+ * memory-mapped vector file next to it and read through the page cache when candidates are re-ranked.
+ * Removed entries stay in the graph as tombstones and are skipped in results, until they exceed
+ * {@code search.hnsw.compaction-ratio} of the nodes and the graph is compacted.
+ * The index is loaded from {@code search.hnsw.file} on startup and written back on shutdown. Every change in between is
+ * appended to a journal next to it, which is synced to disk on {@link #checkpoint()} after every ingested batch and
+ * replayed on startup, so a crash never loses the vectors of an ingested batch.
+ */
+@Alternative
+@Priority(1)
+@ApplicationScoped
+@IfBuildProperty(name = "search.vector-store", stringValue = "hnsw")
+public class HnswEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    // Version 2 stores the type of every metadata value, version 1 files are still read with string values.
+    // Version 3 stores the int8 codes of quantized indexes instead of their float vectors.
+    private static final int FILE_VERSION = 3;
+    static final String JOURNAL_SUFFIX = ".journal";
+    static final String VECTORS_SUFFIX = ".vectors";
+    // Adds of version 1, with string metadata values
+    private static final byte JOURNAL_ADD_UNTYPED = 1;
+    private static final byte JOURNAL_REMOVE = 2;
+    private static final byte JOURNAL_CLEAR = 3;
+    private static final byte JOURNAL_ADD = 4;
+    private static final byte METADATA_STRING = 1;
+    private static final byte METADATA_UUID = 2;
+    private static final byte METADATA_INTEGER = 3;
+    private static final byte METADATA_LONG = 4;
+    private static final byte METADATA_FLOAT = 5;
+    private static final byte METADATA_DOUBLE = 6;
+    // Small journals are only synced, folding them into the index file is not worth rewriting it
+    private static final long MIN_FOLDED_JOURNAL_BYTES = 16 * 1024 * 1024;
+    // Vectors live in fixed size off-heap chunks, a single direct buffer is limited to 2 GB
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_NODES = 1 << CHUNK_BITS;
+    private static final Comparator<Candidate> BEST_FIRST = Comparator.comparingDouble(Candidate::similarity).reversed();
+    private static final Comparator<Candidate> WORST_FIRST = Comparator.comparingDouble(Candidate::similarity);
+
+    private final int dimension;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    private final Path file;
+    private final Path journalFile;
+    private final int recallSamples;
+    private final Quantization quantization;
+    private final int rerankFactor;
+    private final double compactionRatio;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Only one index file is written at a time, taken before the read write lock
+    private final Object snapshotLock = new Object();
+
+    private final List<FloatBuffer> vectorChunks = new ArrayList<>();
+    private final List<ByteBuffer> codeChunks = new ArrayList<>();
+    private float[] scales = new float[CHUNK_NODES];
+    // Float vectors of quantized indexes, numbered so a compaction or clear never overwrites those the index file uses
+    private FileChannel vectorFile;
+    private final List<MappedByteBuffer> vectorMaps = new ArrayList<>();
+    private int vectorGeneration;
+    private boolean vectorFileStored;
+    private final List<String> ids = new ArrayList<>();
+    private final List<TextSegment> segments = new ArrayList<>();
+    private final List<int[][]> links = new ArrayList<>();
+    private final Map<String, Integer> nodesById = new HashMap<>();
+    // Live nodes of every metadata id, so removals filtered on ids only test the segments of those ids
+    private final Map<String, List<Integer>> nodesByMetadataId = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    // Appended under the write lock, synced and reset under the read lock, hence guarded by the instance monitor
+    private FileChannel journalChannel;
+    private DataOutputStream journal;
+    private volatile long snapshotBytes;
+
+    HnswEmbeddingStore(
+            @ConfigProperty(name = "quarkus.langchain4j.pgvector.dimension") int dimension,
+            @ConfigProperty(name = "search.hnsw.m", defaultValue = "16") int m,
+            @ConfigProperty(name = "search.hnsw.ef-construction", defaultValue = "200") int efConstruction,
+            @ConfigProperty(name = "search.hnsw.ef-search", defaultValue = "64") int efSearch,
+            @ConfigProperty(name = "search.hnsw.file", defaultValue = "data/hnsw.index") Path file,
+            @ConfigProperty(name = "search.hnsw.recall-samples", defaultValue = "0") int recallSamples,
+            @ConfigProperty(name = "search.vector-quantization", defaultValue = "none") Quantization quantization,
+            @ConfigProperty(name = "search.vector-quantization.rerank-factor", defaultValue = "4") int rerankFactor,
+            @ConfigProperty(name = "search.hnsw.compaction-ratio", defaultValue = "0.2") double compactionRatio
+    ) {
+        this.dimension = dimension;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.file = file;
+        this.journalFile = file.resolveSibling(file.getFileName() + JOURNAL_SUFFIX);
+        this.recallSamples = recallSamples;
+        this.quantization = quantization;
+        this.rerankFactor = rerankFactor;
+        this.compactionRatio = compactionRatio;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        open();
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        close();
+    }
+
+    // ImportService fires the event before it stores the content hashes of the batch
+    void onPropertiesChanged(@Observes PropertiesChanged event) {
+        checkpoint();
+    }
+
+    /**
+     * Loads the index file, if there is one, and replays the journal of the changes made after it was written
+     */
+    void open() {
+        long started = System.nanoTime();
+        if (Files.exists(file)) {
+            try {
+                read(file);
+                Log.info("Loaded HNSW index with %s vectors from %s in %s ms, %s".formatted(
+                        size(), file, (System.nanoTime() - started) / 1_000_000, memoryUsage()));
+            } catch (IOException e) {
+                Log.error("Failed to load HNSW index from " + file + ", starting empty", e);
+            }
+        } else {
+            Log.info("No HNSW index at %s, starting empty".formatted(file));
+        }
+
+        if (Files.exists(journalFile)) {
+            try {
+                int changes = replay(journalFile);
+                snapshot();
+                Log.info("Replayed %s changes from %s in %s ms, index has %s vectors".formatted(
+                        changes, journalFile, (System.nanoTime() - started) / 1_000_000, size()));
+            } catch (IOException e) {
+                Log.error("Failed to replay HNSW journal " + journalFile, e);
+            }
+        }
+
+        if (recallSamples > 0) {
+            // The exact scan touches every vector per sample, so keep it off the startup path
+            Thread.ofVirtual().start(() -> Log.info("HNSW against exact search: " + recall(5, recallSamples)));
+        }
+    }
+
+    /**
+     * Writes the index file and releases the vector file
+     */
+    void close() {
+        try {
+            snapshot();
+            if (vectorFile != null) {
+                vectorFile.close();
+            }
+        } catch (IOException e) {
+            Log.error("Failed to write HNSW index to " + file, e);
+        }
+    }
+
+    /**
+     * Makes every change so far durable. The journal is synced to disk, and folded into a new index file
+     * once it outgrew the index file or the tombstones exceed the compaction ratio.
+     */
+    public void checkpoint() {
+        boolean fold;
+        lock.readLock().lock();
+        try {
+            long journalBytes = journalBytes();
+            fold = journalBytes > Math.max(snapshotBytes, MIN_FOLDED_JOURNAL_BYTES) || needsCompaction();
+            if (!fold && journalBytes > 0) {
+                syncJournal();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to sync HNSW journal " + journalFile, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (fold) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write HNSW index to " + file, e);
+            }
+        }
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return add(embedding, null);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), textSegment == null ? null : List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+        List<String> newIds = embeddings.stream().map(embedding -> UUID.randomUUID().toString()).toList();
+        addAll(newIds, embeddings, textSegments);
+        return newIds;
+    }
+
+    @Override
+    public void addAll(List<String> newIds, List<Embedding> embeddings, List<TextSegment> textSegments) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < embeddings.size(); i++) {
+                float[] vector = normalize(embeddings.get(i).vector());
+                TextSegment segment = textSegments == null ? null : textSegments.get(i);
+                insert(newIds.get(i), vector, segment);
+                logAdd(newIds.get(i), vector, segment);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        removeAll(List.of(id));
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                Integer node = nodesById.get(id);
+                if (node != null) {
+                    delete(node);
+                    logRemove(id);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the segments matching the filter. Filters on the id metadata only test the nodes of those ids,
+     * other filters test every node under the read lock, so searches go on while the graph is scanned.
+     */
+    @Override
+    public void removeAll(Filter filter) {
+        List<Integer> matching = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int node : candidates(filter)) {
+                TextSegment segment = segments.get(node);
+                if (!deleted.get(node) && segment != null && filter.test(segment.metadata())) {
+                    matching.add(node);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (matching.isEmpty()) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int node : matching) {
+                // Skips nodes which were removed, or renumbered by a compaction, in between
+                TextSegment segment = node < ids.size() ? segments.get(node) : null;
+                if (segment != null && !deleted.get(node) && filter.test(segment.metadata())) {
+                    delete(node);
+                    logRemove(ids.get(node));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            clear();
+            logClear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = normalize(request.queryEmbedding().vector());
+        Filter filter = request.filter();
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+
+            // Tombstones take slots in the candidate list by their share of the graph, filtered out entries by the
+            // selectivity of the filter, so widen it for them
+            int ef = Math.max(efSearch, request.maxResults());
+            ef = filter == null ? ef + (int) Math.ceil((double) ef * deleted.cardinality() / ids.size()) : ef * 4;
+            // Dropped before the best candidates are re-ranked, so they don't take the re-ranked slots either
+            List<Candidate> live = searchGraph(query, ef).stream()
+                    .filter(candidate -> accepts(candidate.node(), filter))
+                    .toList();
+            List<Candidate> candidates = rerank(query, live, filter == null ? request.maxResults() * rerankFactor : ef);
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+            for (Candidate candidate : candidates) {
+                if (matches.size() >= request.maxResults()) {
+                    break;
+                }
+                double score = RelevanceScore.fromCosineSimilarity(candidate.similarity());
+                if (score < request.minScore()) {
+                    break;
+                }
+                matches.add(new EmbeddingMatch<>(score, ids.get(candidate.node()), Embedding.from(vector(candidate.node())),
+                        segments.get(candidate.node())));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Measures how many of the exact top-k neighbours the graph search finds, using stored vectors as queries.
+     * The exact scan returns the same ranking as pgvector without an ANN index.
+     *
+     * @param k       Number of neighbours compared
+     * @param samples Number of query vectors
+     * @return Average recall@k, query latencies and memory of the vectors
+     */
+    public String recall(int k, int samples) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return "empty index";
+            }
+            Random random = new Random(42);
+            long found = 0;
+            long expected = 0;
+            long exactNanos = 0;
+            long approximateNanos = 0;
+            for (int i = 0; i < samples; i++) {
+                float[] query = vector(random.nextInt(ids.size()));
+
+                long started = System.nanoTime();
+                List<Integer> exact = exactSearch(query, k);
+                long scanned = System.nanoTime();
+                List<Candidate> live = searchGraph(query, Math.max(efSearch, k)).stream()
+                        .filter(candidate -> !deleted.get(candidate.node()))
+                        .toList();
+                List<Integer> approximate = rerank(query, live, k * rerankFactor).stream()
+                        .map(Candidate::node)
+                        .limit(k)
+                        .toList();
+                approximateNanos += System.nanoTime() - scanned;
+                exactNanos += scanned - started;
+
+                found += exact.stream().filter(approximate::contains).count();
+                expected += exact.size();
+            }
+            return "recall@%s %.3f, %s quantization %.2f ms per query, exact scan %.2f ms per query, %s".formatted(
+                    k, expected == 0 ? 1.0 : (double) found / expected, quantization,
+                    approximateNanos / 1e6 / samples, exactNanos / 1e6 / samples, memoryUsage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodesById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void clear() {
+        vectorChunks.clear();
+        codeChunks.clear();
+        startVectorFile();
+        ids.clear();
+        segments.clear();
+        links.clear();
+        nodesById.clear();
+        nodesByMetadataId.clear();
+        deleted.clear();
+        entryPoint = -1;
+        maxLevel = -1;
+    }
+
+    private void insert(String id, float[] vector, TextSegment segment) {
+        Integer previous = nodesById.get(id);
+        if (previous != null) {
+            delete(previous);
+        }
+
+        int level = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[0];
+        }
+        int node = append(id, vector, segment, nodeLinks);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(vector, current, l);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(vector, current, efConstruction, l);
+            int maxLinks = l == 0 ? m * 2 : m;
+            int[] neighbours = candidates.stream()
+                    .limit(maxLinks)
+                    .mapToInt(Candidate::node)
+                    .toArray();
+            nodeLinks[l] = neighbours;
+            for (int neighbour : neighbours) {
+                connect(neighbour, node, l, maxLinks);
+            }
+            current = candidates.get(0).node();
+        }
+
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    private int append(String id, float[] vector, TextSegment segment, int[][] nodeLinks) {
+        int node = append(id, segment, nodeLinks);
+        chunk(node).put(offset(node), vector);
+        if (quantization == Quantization.INT8) {
+            encode(node, vector);
+        }
+        return node;
+    }
+
+    /**
+     * Adds a node without its vector, which the caller stores
+     */
+    private int append(String id, TextSegment segment, int[][] nodeLinks) {
+        int node = ids.size();
+        if (node >>> CHUNK_BITS >= vectorChunks.size()) {
+            addChunk();
+        }
+        ids.add(id);
+        segments.add(segment);
+        links.add(nodeLinks);
+        nodesById.put(id, node);
+        String metadataId = metadataId(segment);
+        if (metadataId != null) {
+            nodesByMetadataId.computeIfAbsent(metadataId, key -> new ArrayList<>(1)).add(node);
+        }
+        return node;
+    }
+
+    private void delete(int node) {
+        if (deleted.get(node)) {
+            return;
+        }
+        deleted.set(node);
+        nodesById.remove(ids.get(node));
+        String metadataId = metadataId(segments.get(node));
+        if (metadataId != null) {
+            List<Integer> nodes = nodesByMetadataId.get(metadataId);
+            nodes.remove(Integer.valueOf(node));
+            if (nodes.isEmpty()) {
+                nodesByMetadataId.remove(metadataId);
+            }
+        }
+    }
+
+    /**
+     * @return Whether the node is live and matches the filter, if there is one
+     */
+    private boolean accepts(int node, Filter filter) {
+        if (deleted.get(node)) {
+            return false;
+        }
+        if (filter == null) {
+            return true;
+        }
+        TextSegment segment = segments.get(node);
+        return segment != null && filter.test(segment.metadata());
+    }
+
+    private static String metadataId(TextSegment segment) {
+        return segment == null ? null : segment.metadata().getString("id");
+    }
+
+    /**
+     * @return Nodes of the ids a filter requires, or every node if it doesn't require any
+     */
+    private Iterable<Integer> candidates(Filter filter) {
+        Collection<?> metadataIds = metadataIds(filter);
+        if (metadataIds == null) {
+            return () -> IntStream.range(0, ids.size()).iterator();
+        }
+        List<Integer> nodes = new ArrayList<>();
+        for (Object metadataId : metadataIds) {
+            nodes.addAll(nodesByMetadataId.getOrDefault(String.valueOf(metadataId), List.of()));
+        }
+        return nodes;
+    }
+
+    /**
+     * Ids a filter requires, found in an equality or inclusion on the id key or in either side of a conjunction
+     */
+    private static Collection<?> metadataIds(Filter filter) {
+        if (filter instanceof IsIn in && "id".equals(in.key())) {
+            return in.comparisonValues();
+        }
+        if (filter instanceof IsEqualTo equal && "id".equals(equal.key())) {
+            return List.of(equal.comparisonValue());
+        }
+        if (filter instanceof And and) {
+            Collection<?> left = metadataIds(and.left());
+            return left != null ? left : metadataIds(and.right());
+        }
+        return null;
+    }
+
+    private boolean needsCompaction() {
+        int tombstones = deleted.cardinality();
+        return tombstones > 0 && tombstones > ids.size() * compactionRatio;
+    }
+
+    /**
+     * Drops the tombstones from the graph. Links to removed nodes are replaced by the closest live nodes the removed
+     * ones linked to, then the live nodes are renumbered without gaps and their vectors moved down in place.
+     */
+    private void compact() {
+        int count = ids.size();
+        int tombstones = deleted.cardinality();
+        if (tombstones == count) {
+            clear();
+            return;
+        }
+
+        for (int node = deleted.nextClearBit(0); node < count; node = deleted.nextClearBit(node + 1)) {
+            int[][] nodeLinks = links.get(node);
+            for (int l = 0; l < nodeLinks.length; l++) {
+                nodeLinks[l] = repair(node, nodeLinks[l], l);
+            }
+        }
+
+        int[] renumbered = new int[count];
+        int live = 0;
+        for (int node = 0; node < count; node++) {
+            renumbered[node] = deleted.get(node) ? -1 : live++;
+        }
+
+        int newEntryPoint = deleted.get(entryPoint) ? -1 : renumbered[entryPoint];
+        int newMaxLevel = newEntryPoint < 0 ? -1 : maxLevel;
+        List<FloatBuffer> previousChunks = List.copyOf(vectorChunks);
+        if (quantization == Quantization.INT8) {
+            // The index file on disk refers to the float vectors by their old numbers, so they go to a new vector file
+            vectorChunks.clear();
+            startVectorFile();
+        }
+        for (int node = 0; node < count; node++) {
+            int target = renumbered[node];
+            if (target < 0) {
+                continue;
+            }
+            if (target != node || quantization == Quantization.INT8) {
+                move(node, target, previousChunks);
+            }
+            int[][] nodeLinks = links.get(node);
+            for (int l = 0; l < nodeLinks.length; l++) {
+                nodeLinks[l] = Arrays.stream(nodeLinks[l]).map(neighbour -> renumbered[neighbour]).filter(neighbour -> neighbour >= 0).toArray();
+            }
+            ids.set(target, ids.get(node));
+            segments.set(target, segments.get(node));
+            links.set(target, nodeLinks);
+            if (nodeLinks.length - 1 > newMaxLevel) {
+                newEntryPoint = target;
+                newMaxLevel = nodeLinks.length - 1;
+            }
+        }
+
+        ids.subList(live, count).clear();
+        segments.subList(live, count).clear();
+        links.subList(live, count).clear();
+        int chunks = (live + CHUNK_NODES - 1) >>> CHUNK_BITS;
+        vectorChunks.subList(chunks, vectorChunks.size()).clear();
+        if (!codeChunks.isEmpty()) {
+            codeChunks.subList(chunks, codeChunks.size()).clear();
+        }
+        deleted.clear();
+        entryPoint = newEntryPoint;
+        maxLevel = newMaxLevel;
+
+        nodesById.clear();
+        nodesByMetadataId.clear();
+        for (int node = 0; node < live; node++) {
+            nodesById.put(ids.get(node), node);
+            String metadataId = metadataId(segments.get(node));
+            if (metadataId != null) {
+                nodesByMetadataId.computeIfAbsent(metadataId, key -> new ArrayList<>(1)).add(node);
+            }
+        }
+        Log.info("Compacted HNSW index %s, dropped %s tombstones, %s vectors left".formatted(file, tombstones, live));
+    }
+
+    /**
+     * @return Links of a live node without removed neighbours, refilled from the links of those neighbours
+     */
+    private int[] repair(int node, int[] neighbours, int level) {
+        if (Arrays.stream(neighbours).noneMatch(deleted::get)) {
+            return neighbours;
+        }
+        Set<Integer> candidates = new LinkedHashSet<>();
+        for (int neighbour : neighbours) {
+            if (!deleted.get(neighbour)) {
+                candidates.add(neighbour);
+                continue;
+            }
+            for (int next : links.get(neighbour)[level]) {
+                if (next != node && !deleted.get(next)) {
+                    candidates.add(next);
+                }
+            }
+        }
+
+        int maxLinks = level == 0 ? m * 2 : m;
+        float[] origin = vector(node);
+        return candidates.stream()
+                .sorted(Comparator.comparingDouble((Integer neighbour) -> similarity(origin, neighbour)).reversed())
+                .limit(maxLinks)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private void move(int from, int to, List<FloatBuffer> previousChunks) {
+        if (to >>> CHUNK_BITS >= vectorChunks.size()) {
+            vectorChunks.add(vectorChunk());
+        }
+        float[] vector = new float[dimension];
+        previousChunks.get(from >>> CHUNK_BITS).get(offset(from), vector);
+        chunk(to).put(offset(to), vector);
+        if (quantization == Quantization.INT8 && from != to) {
+            ByteBuffer source = codeChunks.get(from >>> CHUNK_BITS);
+            ByteBuffer target = codeChunks.get(to >>> CHUNK_BITS);
+            for (int i = 0; i < dimension; i++) {
+                target.put(offset(to) + i, source.get(offset(from) + i));
+            }
+            scales[to] = scales[from];
+        }
+    }
+
+    private void connect(int from, int to, int level, int maxLinks) {
+        int[] current = links.get(from)[level];
+        int[] extended = new int[current.length + 1];
+        System.arraycopy(current, 0, extended, 0, current.length);
+        extended[current.length] = to;
+
+        if (extended.length > maxLinks) {
+            // Keep the closest neighbours of the node which got a new link
+            float[] origin = vector(from);
+            extended = Arrays.stream(extended)
+                    .boxed()
+                    .sorted(Comparator.comparingDouble((Integer neighbour) -> similarity(origin, neighbour)).reversed())
+                    .limit(maxLinks)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+        links.get(from)[level] = extended;
+    }
+
+    private List<Candidate> searchGraph(float[] query, int ef) {
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(query, current, l);
+        }
+        return searchLayer(query, current, ef, 0);
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        double best = similarity(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : links.get(current)[level]) {
+                double similarity = similarity(query, neighbour);
+                if (similarity > best) {
+                    best = similarity;
+                    current = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return Up to ef closest nodes found from the entry node, best first
+     */
+    private List<Candidate> searchLayer(float[] query, int entry, int ef, int level) {
+        BitSet visited = new BitSet(ids.size());
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(WORST_FIRST);
+
+        Candidate start = new Candidate(entry, similarity(query, entry));
+        visited.set(entry);
+        candidates.add(start);
+        results.add(start);
+
+        while (!candidates.isEmpty()) {
+            Candidate closest = candidates.poll();
+            if (results.size() >= ef && closest.similarity() < results.peek().similarity()) {
+                break;
+            }
+            int[][] nodeLinks = links.get(closest.node());
+            if (level >= nodeLinks.length) {
+                continue;
+            }
+            for (int neighbour : nodeLinks[level]) {
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                double similarity = similarity(query, neighbour);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Candidate candidate = new Candidate(neighbour, similarity);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    private List<Integer> exactSearch(float[] query, int k) {
+        PriorityQueue<Candidate> results = new PriorityQueue<>(WORST_FIRST);
+        for (int node = 0; node < ids.size(); node++) {
+            if (deleted.get(node)) {
+                continue;
+            }
+            results.add(new Candidate(node, exactSimilarity(query, node)));
+            if (results.size() > k) {
+                results.poll();
+            }
+        }
+        return results.stream().map(Candidate::node).toList();
+    }
+
+    /**
+     * Re-ranks the best candidates with exact similarity when the graph was traversed on byte codes
+     */
+    private List<Candidate> rerank(float[] query, List<Candidate> candidates, int keep) {
+        if (quantization == Quantization.NONE) {
+            return candidates;
+        }
+        List<Candidate> reranked = new ArrayList<>(candidates.subList(0, Math.min(keep, candidates.size())).stream()
+                .map(candidate -> new Candidate(candidate.node(), exactSimilarity(query, candidate.node())))
+                .toList());
+        reranked.sort(BEST_FIRST);
+        return reranked;
+    }
+
+    private double similarity(float[] query, int node) {
+        if (quantization == Quantization.INT8) {
+            return quantizedSimilarity(query, node);
+        }
+        return exactSimilarity(query, node);
+    }
+
+    private double quantizedSimilarity(float[] query, int node) {
+        ByteBuffer codes = codeChunks.get(node >>> CHUNK_BITS);
+        int offset = (node & (CHUNK_NODES - 1)) * dimension;
+        double dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * codes.get(offset + i);
+        }
+        return dot * scales[node];
+    }
+
+    private void encode(int node, float[] vector) {
+        float max = 0;
+        for (float value : vector) {
+            max = Math.max(max, Math.abs(value));
+        }
+        float scale = max == 0 ? 0 : max / Byte.MAX_VALUE;
+        ByteBuffer codes = codeChunks.get(node >>> CHUNK_BITS);
+        int offset = (node & (CHUNK_NODES - 1)) * dimension;
+        for (int i = 0; i < dimension; i++) {
+            codes.put(offset + i, scale == 0 ? 0 : (byte) Math.round(vector[i] / scale));
+        }
+        scale(node, scale);
+    }
+
+    private void scale(int node, float scale) {
+        if (node >= scales.length) {
+            scales = Arrays.copyOf(scales, Math.max(scales.length * 2, node + 1));
+        }
+        scales[node] = scale;
+    }
+
+    private void addChunk() {
+        if (quantization == Quantization.INT8) {
+            codeChunks.add(ByteBuffer.allocateDirect(CHUNK_NODES * dimension));
+        }
+        vectorChunks.add(vectorChunk());
+    }
+
+    /**
+     * @return Float vectors of the next chunk, off-heap or mapped from the vector file when quantized
+     */
+    private FloatBuffer vectorChunk() {
+        long floatBytes = (long) CHUNK_NODES * dimension * Float.BYTES;
+        if (quantization == Quantization.NONE) {
+            return ByteBuffer.allocateDirect((int) floatBytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+
+        Path path = vectorPath(vectorGeneration);
+        try {
+            if (vectorFile == null) {
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                vectorFile = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (!vectorFileStored) {
+                    vectorFile.truncate(0);
+                }
+            }
+            MappedByteBuffer mapped = vectorFile.map(FileChannel.MapMode.READ_WRITE, vectorMaps.size() * floatBytes, floatBytes);
+            vectorMaps.add(mapped);
+            return mapped.order(ByteOrder.nativeOrder()).asFloatBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map vector file " + path, e);
+        }
+    }
+
+    /**
+     * Writes the float vectors of a quantized index to a new vector file from now on
+     */
+    private void startVectorFile() {
+        if (quantization == Quantization.NONE) {
+            return;
+        }
+        try {
+            if (vectorFile != null) {
+                // Mapped chunks stay readable after the channel is closed
+                vectorFile.close();
+                vectorFile = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close vector file " + vectorPath(vectorGeneration), e);
+        }
+        vectorMaps.clear();
+        vectorGeneration++;
+        vectorFileStored = false;
+    }
+
+    private Path vectorPath(int generation) {
+        return file.resolveSibling(file.getFileName() + VECTORS_SUFFIX + "." + generation);
+    }
+
+    /**
+     * Deletes the vector files the index file doesn't refer to, all of them when it holds the float vectors itself
+     */
+    private void deleteStaleVectorFiles() throws IOException {
+        String prefix = file.getFileName() + VECTORS_SUFFIX;
+        String current = quantization == Quantization.INT8 ? vectorPath(vectorGeneration).getFileName().toString() : null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(file.toAbsolutePath().getParent(), path -> {
+            String name = path.getFileName().toString();
+            return (name.equals(prefix) || name.startsWith(prefix + ".")) && !name.equals(current);
+        })) {
+            for (Path stale : files) {
+                Files.delete(stale);
+            }
+        }
+    }
+
+    private String memoryUsage() {
+        long count = ids.size();
+        long floatMb = count * dimension * Float.BYTES / (1024 * 1024);
+        if (quantization == Quantization.NONE) {
+            return "vectors use %s MB off-heap".formatted(floatMb);
+        }
+        long codeMb = count * (dimension + Float.BYTES) / (1024 * 1024);
+        return "int8 codes use %s MB off-heap, re-ranking reads %s MB of float vectors from %s through the page cache"
+                .formatted(codeMb, floatMb, vectorPath(vectorGeneration).getFileName());
+    }
+
+    private double exactSimilarity(float[] query, int node) {
+        FloatBuffer chunk = chunk(node);
+        int offset = offset(node);
+        double dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * chunk.get(offset + i);
+        }
+        return dot;
+    }
+
+    private float[] vector(int node) {
+        float[] vector = new float[dimension];
+        chunk(node).get(offset(node), vector);
+        return vector;
+    }
+
+    private FloatBuffer chunk(int node) {
+        return vectorChunks.get(node >>> CHUNK_BITS);
+    }
+
+    private int offset(int node) {
+        return (node & (CHUNK_NODES - 1)) * dimension;
+    }
+
+    private float[] normalize(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected embedding of dimension %s, got %s".formatted(dimension, vector.length));
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = norm == 0 ? 0 : (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    /**
+     * Compacts the graph if needed and writes the index file, which then contains every journaled change
+     */
+    private void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            lock.writeLock().lock();
+            try {
+                if (needsCompaction()) {
+                    compact();
+                }
+                // Downgrade, so searches go on while the file is written and writers wait until the journal is reset
+                lock.readLock().lock();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                write(file);
+                resetJournal();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private void write(Path target) throws IOException {
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(dimension);
+            out.writeInt(ids.size());
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            boolean quantized = quantization == Quantization.INT8;
+            out.writeBoolean(quantized);
+            if (quantized) {
+                // The index file refers to these float vectors, so they have to be on disk first
+                for (MappedByteBuffer mapped : vectorMaps) {
+                    mapped.force();
+                }
+                out.writeInt(vectorGeneration);
+            }
+            for (int node = 0; node < ids.size(); node++) {
+                out.writeUTF(ids.get(node));
+                out.writeBoolean(deleted.get(node));
+                writeSegment(out, segments.get(node));
+                if (quantized) {
+                    writeCodes(out, node);
+                } else {
+                    writeVector(out, vector(node));
+                }
+                int[][] nodeLinks = links.get(node);
+                out.writeInt(nodeLinks.length);
+                for (int[] levelLinks : nodeLinks) {
+                    out.writeInt(levelLinks.length);
+                    for (int neighbour : levelLinks) {
+                        out.writeInt(neighbour);
+                    }
+                }
+            }
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotBytes = Files.size(target);
+        deleteStaleVectorFiles();
+    }
+
+    private void read(Path source) throws IOException {
+        lock.writeLock().lock();
+        FileChannel storedVectors = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            int version = in.readInt();
+            if (version < 1 || version > FILE_VERSION || in.readInt() != dimension) {
+                throw new IOException("Index file has a different version or dimension");
+            }
+            boolean typed = version >= 2;
+            clear();
+            int count = in.readInt();
+            int storedEntryPoint = in.readInt();
+            int storedMaxLevel = in.readInt();
+            boolean quantized = version >= 3 && in.readBoolean();
+            if (quantized) {
+                int generation = in.readInt();
+                Path vectors = vectorPath(generation);
+                if (Files.size(vectors) < (long) count * dimension * Float.BYTES) {
+                    throw new IOException("Vector file " + vectors + " is missing vectors of the index file");
+                }
+                if (quantization == Quantization.INT8) {
+                    vectorGeneration = generation;
+                    vectorFileStored = true;
+                } else {
+                    storedVectors = FileChannel.open(vectors, StandardOpenOption.READ);
+                }
+            }
+            for (int node = 0; node < count; node++) {
+                String id = in.readUTF();
+                boolean isDeleted = in.readBoolean();
+                TextSegment segment = readSegment(in, typed);
+                byte[] codes = quantized ? readCodes(in) : null;
+                float[] vector = quantized ? null : readVector(in);
+                if (storedVectors != null) {
+                    vector = readVector(storedVectors, node);
+                }
+                int[][] nodeLinks = new int[in.readInt()][];
+                for (int l = 0; l < nodeLinks.length; l++) {
+                    nodeLinks[l] = new int[in.readInt()];
+                    for (int i = 0; i < nodeLinks[l].length; i++) {
+                        nodeLinks[l][i] = in.readInt();
+                    }
+                }
+                if (vector != null) {
+                    append(id, vector, segment, nodeLinks);
+                } else {
+                    storeCodes(append(id, segment, nodeLinks), codes);
+                }
+                if (isDeleted) {
+                    delete(node);
+                }
+            }
+            entryPoint = storedEntryPoint;
+            maxLevel = storedMaxLevel;
+            snapshotBytes = Files.size(source);
+        } finally {
+            if (storedVectors != null) {
+                storedVectors.close();
+            }
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the journaled changes. A torn last record was never confirmed by a checkpoint and is dropped.
+     *
+     * @return Number of applied changes
+     */
+    private int replay(Path source) throws IOException {
+        lock.writeLock().lock();
+        int changes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case JOURNAL_ADD, JOURNAL_ADD_UNTYPED -> {
+                        String id = in.readUTF();
+                        TextSegment segment = readSegment(in, type == JOURNAL_ADD);
+                        insert(id, readVector(in), segment);
+                    }
+                    case JOURNAL_REMOVE -> {
+                        Integer node = nodesById.get(in.readUTF());
+                        if (node != null) {
+                            delete(node);
+                        }
+                    }
+                    case JOURNAL_CLEAR -> clear();
+                    default -> throw new IOException("Unknown journal record " + type);
+                }
+                changes++;
+            }
+        } catch (EOFException e) {
+            return changes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void logAdd(String id, float[] vector, TextSegment segment) {
+        log(out -> {
+            out.writeByte(JOURNAL_ADD);
+            out.writeUTF(id);
+            writeSegment(out, segment);
+            writeVector(out, vector);
+        });
+    }
+
+    private void logRemove(String id) {
+        log(out -> {
+            out.writeByte(JOURNAL_REMOVE);
+            out.writeUTF(id);
+        });
+    }
+
+    private void logClear() {
+        log(out -> out.writeByte(JOURNAL_CLEAR));
+    }
+
+    private synchronized void log(JournalRecord record) {
+        try {
+            if (journal == null) {
+                if (journalFile.getParent() != null) {
+                    Files.createDirectories(journalFile.getParent());
+                }
+                journalChannel = FileChannel.open(journalFile,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                journal = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(journalChannel)));
+            }
+            record.write(journal);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to HNSW journal " + journalFile, e);
+        }
+    }
+
+    private synchronized long journalBytes() {
+        return journal == null ? 0 : journal.size();
+    }
+
+    private synchronized void syncJournal() throws IOException {
+        if (journal != null) {
+            journal.flush();
+            journalChannel.force(false);
+        }
+    }
+
+    /**
+     * Drops the journal once the index file contains its changes
+     */
+    private synchronized void resetJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalChannel = null;
+        }
+        Files.deleteIfExists(journalFile);
+    }
+
+    private void writeVector(DataOutputStream out, float[] vector) throws IOException {
+        for (float value : vector) {
+            out.writeFloat(value);
+        }
+    }
+
+    private float[] readVector(DataInputStream in) throws IOException {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = in.readFloat();
+        }
+        return vector;
+    }
+
+    /**
+     * Reads the float vector of a node from a vector file, when a quantized index file is loaded without quantization
+     */
+    private float[] readVector(FileChannel vectors, int node) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES).order(ByteOrder.nativeOrder());
+        long position = (long) node * dimension * Float.BYTES;
+        while (buffer.hasRemaining()) {
+            if (vectors.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Vector file ends before node " + node);
+            }
+        }
+        float[] vector = new float[dimension];
+        buffer.flip().asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    // Codes followed by the scale
+    private void writeCodes(DataOutputStream out, int node) throws IOException {
+        ByteBuffer codes = codeChunks.get(node >>> CHUNK_BITS);
+        int offset = offset(node);
+        for (int i = 0; i < dimension; i++) {
+            out.writeByte(codes.get(offset + i));
+        }
+        out.writeFloat(scales[node]);
+    }
+
+    private byte[] readCodes(DataInputStream in) throws IOException {
+        byte[] codes = new byte[dimension + Float.BYTES];
+        in.readFully(codes);
+        return codes;
+    }
+
+    private void storeCodes(int node, byte[] codes) {
+        codeChunks.get(node >>> CHUNK_BITS).put(offset(node), codes, 0, dimension);
+        scale(node, ByteBuffer.wrap(codes, dimension, Float.BYTES).getFloat());
+    }
+
+    private static void writeSegment(DataOutputStream out, TextSegment segment) throws IOException {
+        out.writeBoolean(segment != null);
+        if (segment == null) {
+            return;
+        }
+        writeLongString(out, segment.text());
+        Map<String, Object> metadata = segment.metadata().toMap();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeMetadataValue(out, entry.getValue());
+        }
+    }
+
+    /**
+     * @param typed Whether the metadata values carry their type, false for version 1 files where all are strings
+     */
+    private static TextSegment readSegment(DataInputStream in, boolean typed) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String text = readLongString(in);
+        int size = in.readInt();
+        Map<String, Object> metadata = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            metadata.put(in.readUTF(), typed ? readMetadataValue(in) : readLongString(in));
+        }
+        return TextSegment.from(text, Metadata.from(metadata));
+    }
+
+    // Filters compare metadata values by type, an Integer index read back as a String would never match
+    private static void writeMetadataValue(DataOutputStream out, Object value) throws IOException {
+        switch (value) {
+            case String string -> {
+                out.writeByte(METADATA_STRING);
+                writeLongString(out, string);
+            }
+            case UUID uuid -> {
+                out.writeByte(METADATA_UUID);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+            }
+            case Integer integer -> {
+                out.writeByte(METADATA_INTEGER);
+                out.writeInt(integer);
+            }
+            case Long number -> {
+                out.writeByte(METADATA_LONG);
+                out.writeLong(number);
+            }
+            case Float number -> {
+                out.writeByte(METADATA_FLOAT);
+                out.writeFloat(number);
+            }
+            case Double number -> {
+                out.writeByte(METADATA_DOUBLE);
+                out.writeDouble(number);
+            }
+            default -> throw new IllegalArgumentException("Unsupported metadata value " + value.getClass().getName());
+        }
+    }
+
+    private static Object readMetadataValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case METADATA_STRING -> readLongString(in);
+            case METADATA_UUID -> new UUID(in.readLong(), in.readLong());
+            case METADATA_INTEGER -> in.readInt();
+            case METADATA_LONG -> in.readLong();
+            case METADATA_FLOAT -> in.readFloat();
+            case METADATA_DOUBLE -> in.readDouble();
+            default -> throw new IOException("Unknown metadata type " + type);
+        };
+    }
+
+    // writeUTF is limited to 64 KB, descriptions can be longer
+    private static void writeLongString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record Candidate(int node, double similarity) {
+    }
+
+    @FunctionalInterface
+    private interface JournalRecord {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,61 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Content retriever fusing vector hits with {@link LexicalIndex} hits by reciprocal rank.
+ * Properties found only lexically are loaded with one query and turned into the same text as the ingested segments.
+ */
+public class HybridContentRetriever implements ContentRetriever {
+
+    private final ContentRetriever vectorRetriever;
+    private final LexicalIndex lexicalIndex;
+    private final SearchFilterExtractor filterExtractor;
+    private final DownstreamLimiter limiter;
+    private final int maxResults;
+    private final int rrfK;
+
+    public HybridContentRetriever(ContentRetriever vectorRetriever, LexicalIndex lexicalIndex,
+                                  SearchFilterExtractor filterExtractor, DownstreamLimiter limiter, int maxResults, int rrfK) {
+        this.vectorRetriever = vectorRetriever;
+        this.lexicalIndex = lexicalIndex;
+        this.filterExtractor = filterExtractor;
+        this.limiter = limiter;
+        this.maxResults = maxResults;
+        this.rrfK = rrfK;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        Map<String, Content> byId = new LinkedHashMap<>();
+        for (Content content : vectorRetriever.retrieve(query)) {
+            byId.putIfAbsent(content.textSegment().metadata().getString("id"), content);
+        }
+
+        List<String> ids = RankFusion.fuse(rrfK, new ArrayList<>(byId.keySet()), lexicalIndex.search(query.text(), maxResults, filterExtractor.extract(query.text())))
+                .stream()
+                .limit(maxResults)
+                .toList();
+
+        List<String> missing = ids.stream().filter(id -> !byId.containsKey(id)).toList();
+        List<Property> properties = missing.isEmpty() ? List.of()
+                : limiter.call(Downstream.DATABASE, () -> Property.findByIdsOrdered(missing));
+        for (Property property : properties) {
+            byId.put(property.getId(), Content.from(ImportService.toTextSegment(property)));
+        }
+
+        return ids.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+}
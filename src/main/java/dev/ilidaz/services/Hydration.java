@@ -0,0 +1,15 @@
+package dev.ilidaz.services;
+
+/**
+ * Where search hits get their {@link dev.ilidaz.entities.Property} fields from
+ */
+public enum Hydration {
+    /**
+     * Loads the full entities with one batched query, description included
+     */
+    DATABASE,
+    /**
+     * Builds the properties from the segment metadata (id, title, singleLine) without touching the database
+     */
+    METADATA
+}
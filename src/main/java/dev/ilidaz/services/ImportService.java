@@ -1,16 +1,18 @@
 package dev.ilidaz.services;
 
-import dev.ilidaz.dtos.PropertyDto;
 import dev.ilidaz.entities.Property;
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
 import io.quarkus.logging.Log;
+import jakarta.annotation.PostConstruct;
 import io.quarkus.runtime.StartupEvent;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
@@ -19,23 +21,97 @@ import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
 
 @ApplicationScoped
 public class ImportService {
+    static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT
+            .withDelimiter(';')  // Use semicolon as delimiter
+            .withQuote('"')
+            .withIgnoreEmptyLines(true)
+            .withTrim(false);
+
     @Inject
     EmbeddingStore<TextSegment> embeddingStore;
 
     @Inject
     EmbeddingModel embeddingModel;
 
+    @Inject
+    Event<PropertiesChanged> propertiesChanged;
+
+    @Inject
+    LexicalIndex lexicalIndex;
+
+    @Inject
+    SearchMetrics metrics;
+
+    @ConfigProperty(name = "properties.import.batch-size", defaultValue = "1000")
+    int batchSize;
+
+    @ConfigProperty(name = "properties.import.parallelism", defaultValue = "4")
+    int parallelism;
+
+    @ConfigProperty(name = "properties.import.checkpoint", defaultValue = "data/import.checkpoint")
+    Path checkpointFile;
+
+    /**
+     * Token budget of a description chunk, 0 embeds every description as a single segment
+     */
+    @ConfigProperty(name = "properties.chunking.max-segment-tokens", defaultValue = "256")
+    int maxSegmentTokens;
+
+    @ConfigProperty(name = "properties.chunking.overlap-tokens", defaultValue = "32")
+    int overlapTokens;
+
+    /**
+     * There is no tokenizer for the Ollama model on the classpath, token budgets are converted with this ratio
+     */
+    static final int CHARS_PER_TOKEN = 4;
+
+    private EmbeddingStoreIngestor ingester;
+
+    @PostConstruct
+    void init() {
+        EmbeddingStoreIngestor.Builder builder = EmbeddingStoreIngestor.builder()
+                .embeddingModel(embeddingModel)
+                .embeddingStore(embeddingStore)
+                // Every chunk gets the location and id, so it matches location queries and names its property
+                .textSegmentTransformer(segment -> TextSegment.from(
+                        segmentText(segment.text(), segment.metadata().getString("singleLine"), segment.metadata().getString("id")),
+                        segment.metadata()));
+        if (maxSegmentTokens > 0) {
+            // Splits by paragraphs, then sentences, then words; segments inherit the document metadata
+            builder.documentSplitter(DocumentSplitters.recursive(
+                    maxSegmentTokens * CHARS_PER_TOKEN, overlapTokens * CHARS_PER_TOKEN));
+        }
+        ingester = builder.build();
+    }
+
+    /**
+     * Synchronizes the properties with the CSV file.
+     * New rows are stored and embedded, rows with a changed title, description or singleLine are re-embedded,
+     * and rows which are no longer in the file are deleted together with their vectors.
+     * An interrupted sync resumes after the last fully embedded batch.
+     */
     public void load(
 //            @Observes StartupEvent event,
             @ConfigProperty(name = "properties.file") Path path
@@ -44,109 +120,349 @@ public class ImportService {
             throw new IllegalStateException("Missing movies file: " + path);
         }
 
-//    embeddingStore.removeAll();
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+        if (checkpoint.record() > 0) {
+            Log.info("Resuming sync %s after record #%s".formatted(checkpoint.run(), checkpoint.record()));
+        }
 
-        EmbeddingStoreIngestor ingester = EmbeddingStoreIngestor.builder()
-                .embeddingModel(embeddingModel)
-                .embeddingStore(embeddingStore)
-                .build();
+        // Embedding batches run on a bounded pool; the semaphore caps how many parsed batches may wait for it,
+        // so the reader blocks instead of buffering the whole file
+        ExecutorService embedders = Executors.newFixedThreadPool(parallelism);
+        int maxInFlight = parallelism * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
 
-        List<Document> docs = new ArrayList<>();
-        List<Property> properties = parsePropertiesFile(path);
-        final int BATCH_SIZE = 1000;
-        int processedCount = 0;
+        ImportProgress progress = new ImportProgress(checkpoint);
+        List<Property> chunk = new ArrayList<>(batchSize);
+        long chunkStart = 0;
 
-        for (Property property : properties) {
-            if (Property.findById(property.getId()) != null) {
-                continue;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+             CSVParser csvParser = CSV_FORMAT.parse(reader)) {
+
+            for (CSVRecord record : csvParser) {
+                if (record.get(0).equals("id") || record.getRecordNumber() <= checkpoint.record()) {
+                    continue;
+                }
+                if (chunk.isEmpty()) {
+                    chunkStart = record.getRecordNumber();
+                }
+                try {
+                    chunk.add(Property.fromCsvRecord(record));
+                } catch (Exception e) {
+                    Log.error("Error processing record #" + record.getRecordNumber() + ": " + e.getMessage());
+                }
+
+                if (chunk.size() >= batchSize) {
+                    submitBatch(chunk, chunkStart, record.getRecordNumber(), embedders, inFlight, progress);
+                    chunk = new ArrayList<>(batchSize);
+                }
             }
 
-            save(property);
+            if (!chunk.isEmpty()) {
+                submitBatch(chunk, chunkStart, csvParser.getRecordNumber(), embedders, inFlight, progress);
+            }
+        } finally {
+            // Wait for the embedding batches that are still running
+            inFlight.acquireUninterruptibly(maxInFlight);
+            embedders.shutdown();
+            embedders.awaitTermination(1, TimeUnit.MINUTES);
+        }
 
-            Metadata metadata = Metadata.from(Map.of(
-                    "id", property.id,
-                    "singleLine", property.singleLine,
-                    "title", property.title
-            ));
+        if (progress.failed.get() > 0) {
+            // Vanished rows can't be told apart from rows of failed batches, keep them until a clean run
+            Log.warn("Sync %s finished with failures, vanished properties are kept. %s".formatted(checkpoint.run(), progress));
+            return;
+        }
 
-            Document document = Document.from(
-                    property.description + " Location - " + property.singleLine + " ID - " + property.id,
-                    metadata);
+        long removed = removeVanished(checkpoint.run());
+        Files.deleteIfExists(checkpointFile);
 
-            docs.add(document);
-            processedCount++;
+        Log.info("Application initialized! Removed %s vanished properties. %s".formatted(removed, progress));
+    }
 
-            // When we reach batch size or finish processing all properties, ingest the batch
-            if (docs.size() >= BATCH_SIZE || processedCount == properties.size()) {
-                Log.info("Ingesting batch of %s properties (%s of %s)...".formatted(
-                        docs.size(), processedCount, properties.size()));
+    /**
+     * Stores a batch of parsed properties and marks all of them as seen by the sync run.
+     * Stored hashes and changed rows are loaded with one query each, inserts and updates are flushed as JDBC batches.
+     * New hashes are only stored as pending, so rows whose segments never got stored are changed for the next sync.
+     *
+     * @param batch Parsed properties, possibly containing duplicated ids
+     * @param run   Id of the sync run, its start time, or the current time for writes outside of a sync,
+     *              so a sync started earlier doesn't delete them as vanished
+     * @return New and changed properties, which need to be embedded
+     */
+    @Transactional
+    public BatchChanges saveBatch(List<Property> batch, long run) {
+        Map<String, Property> byId = new LinkedHashMap<>();
+        for (Property property : batch) {
+            byId.putIfAbsent(property.getId(), property);
+        }
+
+        Map<String, String> storedHashes = Property.findContentHashes(byId.keySet());
+        List<Property> fresh = new ArrayList<>();
+        List<Property> changed = new ArrayList<>();
+
+        for (Property property : byId.values()) {
+            property.setPendingHash(property.computeContentHash());
+            property.setSyncRun(run);
+            if (!storedHashes.containsKey(property.getId())) {
+                fresh.add(property);
+            } else if (!property.getPendingHash().equals(storedHashes.get(property.getId()))) {
+                changed.add(property);
+            }
+        }
 
-                ingester.ingest(docs);
-                docs.clear(); // Clear the list for the next batch
+        Property.persist(fresh);
+        if (!changed.isEmpty()) {
+            Map<String, Property> changedById = new HashMap<>();
+            changed.forEach(property -> changedById.put(property.getId(), property));
+            for (Property stored : Property.<Property>list("id in ?1", List.copyOf(changedById.keySet()))) {
+                Property property = changedById.get(stored.getId());
+                stored.setTitle(property.getTitle());
+                stored.setDescription(property.getDescription());
+                stored.setSingleLine(property.getSingleLine());
+                stored.setPendingHash(property.getPendingHash());
+                stored.setSyncRun(run);
             }
         }
+        Property.update("syncRun = ?1 where id in ?2", run, List.copyOf(byId.keySet()));
+        Property.getEntityManager().flush();
+        Property.getEntityManager().clear();
+
+        fresh.forEach(lexicalIndex::index);
+        changed.forEach(lexicalIndex::index);
 
-        Log.info("Application initialized!");
+        return new BatchChanges(fresh, changed);
     }
 
-    public boolean importProperty(PropertyDto data) {
-        Property property = Property.builder()
-                .description(data.getDescription())
-                .title(data.getTitle())
-                .id(data.getId())
-                .singleLine(data.getSingleLine())
-                .build();
+    /**
+     * Turns the pending hashes of properties whose segments are stored into their content hashes
+     */
+    @Transactional
+    public void markEmbedded(List<String> ids) {
+        Property.update("contentHash = pendingHash, pendingHash = null where id in ?1 and pendingHash is not null", ids);
+    }
 
-        EmbeddingStoreIngestor ingester = EmbeddingStoreIngestor.builder()
-                .embeddingModel(embeddingModel)
-                .embeddingStore(embeddingStore)
-                .build();
+    /**
+     * Clears the hashes of properties whose embedding failed, so the next sync embeds them again
+     */
+    @Transactional
+    public void markUnsynced(List<String> ids) {
+        Property.update("contentHash = null, pendingHash = null where id in ?1", ids);
+    }
 
-        save(property);
-        Metadata metadata = Metadata.from(Map.of("id", property.id, "singleLine", property.singleLine, "title", property.title));
-        Document document = Document.from(property.description + "Location - %s".formatted(property.singleLine), metadata);
+    /**
+     * Deletes up to one batch of properties which were neither seen by the sync run nor written after it started
+     *
+     * @return Ids of the deleted properties
+     */
+    @Transactional
+    public List<String> deleteVanishedBatch(long run) {
+        List<String> ids = Property.findIdsNotSyncedBy(run, batchSize);
+        if (!ids.isEmpty()) {
+            Property.delete("id in ?1", ids);
+        }
+        return ids;
+    }
 
-        ingester.ingest(document);
+    private long removeVanished(long run) {
+        long removed = 0;
+        List<String> ids;
+        while (!(ids = deleteVanishedBatch(run)).isEmpty()) {
+            embeddingStore.removeAll(metadataKey("id").isIn(ids));
+            ids.forEach(lexicalIndex::remove);
+            propertiesChanged.fire(new PropertiesChanged(ids));
+            removed += ids.size();
+        }
+        return removed;
+    }
+
+    private void submitBatch(List<Property> batch, long firstRecord, long lastRecord, ExecutorService embedders,
+                             Semaphore inFlight, ImportProgress progress) throws InterruptedException {
+        BatchChanges changes = metrics.time(Stage.IMPORT_SAVE, () -> saveBatch(batch, progress.checkpoint.run()));
+        metrics.count("import.properties", "unchanged", batch.size() - changes.all().size());
+        progress.parsed.addAndGet(batch.size());
 
-        return true;
+        if (changes.all().isEmpty()) {
+            progress.completed(firstRecord, lastRecord, checkpointFile);
+            return;
+        }
+
+        inFlight.acquire();
+        progress.started(firstRecord);
+        embedders.execute(() -> {
+            int size = changes.all().size();
+            try {
+                embed(changes);
+                progress.embedded.addAndGet(size);
+                Log.info("Ingested batch of %s properties (%s changed). %s".formatted(
+                        size, changes.changed().size(), progress));
+                progress.completed(firstRecord, lastRecord, checkpointFile);
+            } catch (Exception e) {
+                // The batch stays in the running set, so the checkpoint never moves past it
+                progress.failed.addAndGet(size);
+                Log.error("Error ingesting batch of %s properties: %s".formatted(size, e.getMessage()), e);
+            } finally {
+                inFlight.release();
+            }
+        });
     }
 
-    @Transactional
-    public Property save(Property property) {
-        property.persist();
-        return property;
+    /**
+     * Embeds the new and changed properties of a saved batch with a single embedAll call
+     * and removes the previous segments of the changed ones.
+     * The content hashes are stored only afterwards, once the {@link PropertiesChanged} observers made the segments
+     * durable. If embedding fails the hashes are cleared, so the properties are embedded again by the next write or sync.
+     */
+    public void embed(BatchChanges changes) {
+        List<Property> properties = changes.all();
+        if (properties.isEmpty()) {
+            return;
+        }
+
+        List<String> ids = properties.stream().map(Property::getId).toList();
+        try {
+            metrics.time(Stage.IMPORT_EMBED, () -> {
+                ingester.ingest(properties.stream().map(ImportService::toDocument).toList());
+                replaceSegments(changes.changed());
+                return null;
+            });
+            propertiesChanged.fire(new PropertiesChanged(ids));
+            markEmbedded(ids);
+        } catch (RuntimeException e) {
+            metrics.count("import.properties", "failed", ids.size());
+            markUnsynced(ids);
+            throw e;
+        }
+        metrics.count("import.properties", "fresh", changes.fresh().size());
+        metrics.count("import.properties", "changed", changes.changed().size());
     }
 
-    private List<Property> parsePropertiesFile(Path filePath) {
-        List<Property> properties = new ArrayList<>();
+    /**
+     * Removes the segments of the previous version of changed properties.
+     * The new segments are already stored, so searches never miss a property while it is replaced.
+     */
+    private void replaceSegments(List<Property> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        embeddingStore.removeAll(metadataKey("id").isIn(changed.stream().map(Property::getId).toList())
+                .and(metadataKey("hash").isNotIn(changed.stream().map(Property::getPendingHash).toList())));
+    }
 
-        try (FileReader fileReader = new FileReader(filePath.toString(), StandardCharsets.UTF_8);
-             CSVParser csvParser = new CSVParser(fileReader, CSVFormat.DEFAULT
-                     .withDelimiter(';')  // Use semicolon as delimiter
-                     .withQuote('"')
-                     .withIgnoreEmptyLines(true)
-                     .withTrim(false))) {
+    /**
+     * Builds the document of a property, its text is split and completed by {@link #segmentText} on ingestion.
+     * Changes to the text or metadata need a bump of {@link Property#SEGMENT_VERSION}, so stored segments are rebuilt.
+     */
+    static Document toDocument(Property property) {
+        Map<String, Object> values = new HashMap<>(Map.of(
+                "id", property.id,
+                "singleLine", property.singleLine,
+                "title", property.title
+        ));
+        // Saved properties carry the hash of their new content as pending until it is embedded
+        String hash = property.pendingHash != null ? property.pendingHash : property.contentHash;
+        if (hash != null) {
+            values.put("hash", hash);
+        }
+        // Exact match keys for search filters, see SearchFilter
+        if (property.region() != null) {
+            values.put("region", property.region());
+        }
+        if (property.type() != null) {
+            values.put("type", property.type());
+        }
 
-            for (CSVRecord record : csvParser) {
-                if (record.get(0).equals("id")) {
-                    continue;
-                }
-                try {
-                    Property property = new Property();
-                    if (record.size() > 0) property.setId(record.get(0));
-                    if (record.size() > 1) property.setTitle(record.get(1));
-                    if (record.size() > 2) property.setDescription(record.get(2));
-                    if (record.size() > 3) property.setSingleLine(record.get(3));
-                    properties.add(property);
-                } catch (Exception e) {
-                    Log.error("Error processing record #" + record.getRecordNumber() + ": " + e.getMessage());
-                }
+        return Document.from(firstNonBlank(property.description, property.title, property.id), Metadata.from(values));
+    }
+
+    /**
+     * Single segment with the whole description, as ingested when it fits one chunk
+     */
+    static TextSegment toTextSegment(Property property) {
+        Document document = toDocument(property);
+        return TextSegment.from(segmentText(document.text(), property.singleLine, property.id), document.metadata());
+    }
+
+    static String segmentText(String chunk, String singleLine, String id) {
+        return chunk + " Location - " + singleLine + " ID - " + id;
+    }
+
+    private static String firstNonBlank(String... values) {
+        for (String value : values) {
+            if (value != null && !value.isBlank()) {
+                return value;
             }
+        }
+        return "-";
+    }
+
+    public record BatchChanges(List<Property> fresh, List<Property> changed) {
+        public List<Property> all() {
+            List<Property> all = new ArrayList<>(fresh);
+            all.addAll(changed);
+            return all;
+        }
+    }
 
-        } catch (IOException e) {
-            Log.error("Error parsing CSV file: " + e.getMessage());
+    /**
+     * Sync run id and the last CSV record whose batch, and every batch before it, was fully processed
+     */
+    private record Checkpoint(long run, long record) {
+        static Checkpoint read(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return new Checkpoint(System.currentTimeMillis(), 0);
+            }
+            String[] values = Files.readString(file).trim().split(" ");
+            return new Checkpoint(Long.parseLong(values[0]), Long.parseLong(values[1]));
         }
 
-        return properties;
+        void write(Path file) throws IOException {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temporary, run + " " + record);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static class ImportProgress {
+        private final long startedAt = System.nanoTime();
+        private final Checkpoint checkpoint;
+        private final AtomicLong parsed = new AtomicLong();
+        private final AtomicLong embedded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final ConcurrentSkipListSet<Long> runningBatches = new ConcurrentSkipListSet<>();
+        private long lastCompletedRecord;
+
+        ImportProgress(Checkpoint checkpoint) {
+            this.checkpoint = checkpoint;
+            this.lastCompletedRecord = checkpoint.record();
+        }
+
+        void started(long firstRecord) {
+            runningBatches.add(firstRecord);
+        }
+
+        /**
+         * Moves the checkpoint to the end of the batch unless an earlier batch is still being embedded
+         */
+        synchronized void completed(long firstRecord, long lastRecord, Path file) {
+            runningBatches.remove(firstRecord);
+            lastCompletedRecord = Math.max(lastCompletedRecord, lastRecord);
+            long safeRecord = runningBatches.isEmpty() ? lastCompletedRecord : runningBatches.first() - 1;
+            try {
+                new Checkpoint(checkpoint.run(), safeRecord).write(file);
+            } catch (IOException e) {
+                Log.warn("Failed to write import checkpoint " + file, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max((System.nanoTime() - startedAt) / 1e9, 0.001);
+            return "Parsed %s, embedded %s, failed %s rows in %.1fs (%.1f rows/s parsed, %.1f rows/s embedded)".formatted(
+                    parsed.get(), embedded.get(), failed.get(), seconds,
+                    parsed.get() / seconds, embedded.get() / seconds);
+        }
     }
 }
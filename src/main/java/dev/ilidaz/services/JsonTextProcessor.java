@@ -20,11 +20,6 @@ public class JsonTextProcessor {
 
     private static final Pattern JSON_PATTERN = Pattern.compile("\\{[^{}]*\\}");
 
-    // Regular expression for matching standard UUID format
-    private static final Pattern UUID_PATTERN = Pattern.compile(
-            "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}"
-    );
-
     // Regular expression for UUID without dashes
     private static final Pattern UUID_NO_DASH_PATTERN = Pattern.compile(
             "[0-9a-fA-F]{32}"
@@ -44,9 +39,7 @@ public class JsonTextProcessor {
         List<UUID> results = new ArrayList<>();
 
         // Find standard UUIDs with dashes
-        Matcher matcher = UUID_PATTERN.matcher(input);
-        while (matcher.find()) {
-            String found = matcher.group();
+        for (String found : PropertyIdScanner.findIds(input)) {
             try {
                 // Validate that it's a real UUID by parsing it
                 results.add(UUID.fromString(found));
@@ -57,7 +50,7 @@ public class JsonTextProcessor {
 
         // Optionally find UUIDs without dashes (uncomment if needed)
         /*
-        matcher = UUID_NO_DASH_PATTERN.matcher(input);
+        Matcher matcher = UUID_NO_DASH_PATTERN.matcher(input);
         while (matcher.find()) {
             String found = matcher.group();
             try {
@@ -187,7 +180,7 @@ public class JsonTextProcessor {
      * @return Text with JSON objects replaced according to formatter function
      */
     public String replaceJsonWithCustomFormat(String text, Function<JsonObject, String> formatter) {
-        StringBuffer result = new StringBuffer();
+        StringBuilder result = new StringBuilder();
         Matcher matcher = JSON_PATTERN.matcher(text);
 
         while (matcher.find()) {
@@ -0,0 +1,869 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory BM25 index over title, description and singleLine of the properties.
+ * Catches exact street names and listing codes which the vector search ranks too low.
+ * Built from the database on startup, or restored from a snapshot in search.snapshot.directory,
+ * and kept up to date by {@link ImportService}.
+ * Replaced and removed documents stay in the postings as tombstones until they exceed compaction-ratio of the documents.
+ */
+@ApplicationScoped
+public class LexicalIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int FILE_VERSION = 1;
+    // Documents scored together by search, the size of its score accumulator. The windows start small and double,
+    // so the first documents, scored before the top k give a threshold, don't have to be scored exhaustively.
+    private static final int MIN_WINDOW = 64;
+    private static final int MAX_WINDOW = 4096;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final List<String> docIds = new ArrayList<>();
+    private final Map<String, Integer> docsById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private int[] docLengths = new int[1024];
+    private String[] docRegions = new String[1024];
+    private String[] docTypes = new String[1024];
+    // Postings of the terms of every document, so removals keep the live document frequencies exact
+    private Postings[][] docPostings = new Postings[1024][];
+    private final Map<String, Integer> regionCounts = new HashMap<>();
+    private long totalLength;
+
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+    private final StartupTimings timings;
+    private final boolean enabled;
+    private final Optional<Path> snapshotDirectory;
+    private final Duration snapshotMaxAge;
+    private final double compactionRatio;
+
+    LexicalIndex(
+            StartupTimings timings,
+            @ConfigProperty(name = "search.lexical.enabled", defaultValue = "true") boolean enabled,
+            @ConfigProperty(name = "search.snapshot.directory") Optional<Path> snapshotDirectory,
+            @ConfigProperty(name = "search.snapshot.max-age", defaultValue = "PT24H") Duration snapshotMaxAge,
+            @ConfigProperty(name = "search.lexical.compaction-ratio", defaultValue = "0.2") double compactionRatio
+    ) {
+        this.timings = timings;
+        this.enabled = enabled;
+        this.snapshotDirectory = snapshotDirectory;
+        this.snapshotMaxAge = snapshotMaxAge;
+        this.compactionRatio = compactionRatio;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            loaded.complete(null);
+            return;
+        }
+        Thread.ofVirtual().start(() -> {
+            try {
+                if (!restore()) {
+                    rebuild();
+                    snapshot();
+                }
+                loaded.complete(null);
+            } catch (Exception e) {
+                Log.error("Failed to build the lexical index", e);
+                loaded.completeExceptionally(e);
+            }
+        });
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (enabled && loaded.isDone() && !loaded.isCompletedExceptionally()) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Completes once the index was restored or built on startup
+     */
+    public CompletableFuture<Void> loaded() {
+        return loaded;
+    }
+
+    @Transactional
+    public void rebuild() {
+        long started = System.nanoTime();
+        try (Stream<Property> properties = Property.streamAll()) {
+            properties.forEach(property -> {
+                index(property);
+                // Keep the persistence context from growing with the whole table
+                Property.getEntityManager().detach(property);
+            });
+        }
+        timings.record("lexical-index.database", System.nanoTime() - started);
+        Log.info("Lexical index built with %s properties in %s ms".formatted(size(), (System.nanoTime() - started) / 1_000_000));
+    }
+
+    /**
+     * Loads the index from the snapshot file instead of the database, if there is one younger than max-age.
+     * Properties imported by other instances after the snapshot was written are missing until the next rebuild.
+     *
+     * @return Whether the index was restored
+     */
+    private boolean restore() {
+        Optional<Path> file = snapshotFile().filter(Files::exists);
+        if (file.isEmpty()) {
+            return false;
+        }
+        long started = System.nanoTime();
+        try {
+            if (Files.getLastModifiedTime(file.get()).toInstant().isBefore(Instant.now().minus(snapshotMaxAge))) {
+                Log.info("Lexical index snapshot %s is older than %s, rebuilding".formatted(file.get(), snapshotMaxAge));
+                return false;
+            }
+            read(file.get());
+        } catch (IOException e) {
+            Log.warn("Failed to restore the lexical index from " + file.get() + ", rebuilding", e);
+            return false;
+        }
+        timings.record("lexical-index.snapshot", System.nanoTime() - started);
+        Log.info("Lexical index restored with %s properties from %s".formatted(size(), file.get()));
+        return true;
+    }
+
+    private void snapshot() {
+        snapshotFile().ifPresent(file -> {
+            try {
+                write(file);
+            } catch (IOException e) {
+                Log.warn("Failed to write the lexical index snapshot " + file, e);
+            }
+        });
+    }
+
+    private Optional<Path> snapshotFile() {
+        return snapshotDirectory.map(directory -> directory.resolve("lexical.index"));
+    }
+
+    /**
+     * Adds a property or replaces its previous version
+     */
+    public void index(Property property) {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Integer> frequencies = new HashMap<>();
+        int length = 0;
+        for (String field : new String[]{property.getTitle(), property.getDescription(), property.getSingleLine()}) {
+            for (String token : tokenize(field)) {
+                frequencies.merge(token, 1, Integer::sum);
+                length++;
+            }
+        }
+
+        String region = property.region();
+
+        lock.writeLock().lock();
+        try {
+            removeDocument(property.getId());
+
+            int doc = docIds.size();
+            docIds.add(property.getId());
+            docsById.put(property.getId(), doc);
+            if (doc >= docLengths.length) {
+                docLengths = Arrays.copyOf(docLengths, docLengths.length * 2);
+                docRegions = Arrays.copyOf(docRegions, docLengths.length);
+                docTypes = Arrays.copyOf(docTypes, docLengths.length);
+                docPostings = Arrays.copyOf(docPostings, docLengths.length);
+            }
+            docLengths[doc] = length;
+            docRegions[doc] = region;
+            docTypes[doc] = property.type();
+            if (region != null) {
+                regionCounts.merge(region, 1, Integer::sum);
+            }
+            totalLength += length;
+
+            Postings[] termPostings = new Postings[frequencies.size()];
+            int term = 0;
+            for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+                termPostings[term] = postings.computeIfAbsent(frequency.getKey(), key -> new Postings());
+                termPostings[term++].add(doc, frequency.getValue(), length);
+            }
+            docPostings[doc] = termPostings;
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(id);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ranks properties by BM25 against the query
+     *
+     * @param query      Free text query
+     * @param maxResults Maximum number of ids returned
+     * @return Property ids, best first
+     */
+    public List<String> search(String query, int maxResults) {
+        return search(query, maxResults, SearchFilter.NONE);
+    }
+
+    /**
+     * Ranks properties matching the filter by BM25 against the query
+     *
+     * @param query      Free text query
+     * @param maxResults Maximum number of ids returned
+     * @param filter     Region and type the properties must have
+     * @return Property ids, best first
+     */
+    public List<String> search(String query, int maxResults, SearchFilter filter) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+
+        lock.readLock().lock();
+        try {
+            int documents = docsById.size();
+            if (documents == 0 || terms.isEmpty() || maxResults <= 0) {
+                return List.of();
+            }
+            double averageLength = (double) totalLength / documents;
+
+            List<TermCursor> cursors = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Postings termPostings = postings.get(term);
+                if (termPostings != null && termPostings.size > 0) {
+                    cursors.add(new TermCursor(termPostings,
+                            Math.log(1 + (documents - termPostings.live + 0.5) / (termPostings.live + 0.5)), averageLength));
+                }
+            }
+            if (cursors.isEmpty()) {
+                return List.of();
+            }
+            TopDocs best = maxScore(cursors.toArray(TermCursor[]::new), Math.min(maxResults, documents), filter);
+
+            List<String> ids = new ArrayList<>(best.size);
+            for (int doc : best.docsBestFirst()) {
+                ids.add(docIds.get(doc));
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * MaxScore over windows of document ordinals. Terms are split by their score upper bounds: a document matching
+     * only the non-essential terms can't beat the k-th best score, so candidates come from the postings of the
+     * essential terms, which are summed into a float accumulator per window. The non-essential terms are then looked
+     * up per candidate, best bound first, until the bounds of the rest can no longer lift it into the top k.
+     * Once the k-th best score is so high that a document missing one of several terms can't beat it,
+     * windows are scored as a conjunction of those terms instead.
+     */
+    private TopDocs maxScore(TermCursor[] cursors, int k, SearchFilter filter) {
+        TopDocs best = new TopDocs(k);
+        Arrays.sort(cursors, Comparator.comparingDouble(cursor -> cursor.upperBound));
+        // Sum of the upper bounds of the terms up to and including i
+        double[] bounds = new double[cursors.length];
+        for (int i = 0; i < cursors.length; i++) {
+            bounds[i] = (i == 0 ? 0 : bounds[i - 1]) + cursors[i].upperBound;
+        }
+        double total = bounds[cursors.length - 1];
+        float[] scores = new float[MAX_WINDOW];
+        int[] touched = new int[MAX_WINDOW];
+
+        int window = MIN_WINDOW;
+        int essential = 0;
+        int required = cursors.length;
+        while (true) {
+            while (best.isFull() && essential < cursors.length && bounds[essential] <= best.threshold()) {
+                essential++;
+            }
+            while (best.isFull() && required > 0 && total - cursors[required - 1].upperBound <= best.threshold()) {
+                required--;
+            }
+            int windowStart = Integer.MAX_VALUE;
+            for (int i = essential; i < cursors.length; i++) {
+                windowStart = Math.min(windowStart, cursors[i].doc());
+            }
+            if (windowStart == Integer.MAX_VALUE) {
+                return best;
+            }
+            int windowEnd = windowStart + window;
+            window = Math.min(window * 2, MAX_WINDOW);
+
+            if (cursors.length - required > 1) {
+                scoreConjunction(cursors, bounds, required, windowStart, windowEnd, best, filter);
+                for (int i = essential; i < cursors.length; i++) {
+                    cursors[i].advance(windowEnd);
+                }
+                continue;
+            }
+
+            int candidates = 0;
+            for (int i = essential; i < cursors.length; i++) {
+                TermCursor cursor = cursors[i];
+                Postings termPostings = cursor.postings;
+                int position = cursor.position;
+                while (position < termPostings.size && termPostings.docs[position] < windowEnd) {
+                    int doc = termPostings.docs[position];
+                    int slot = doc - windowStart;
+                    if (scores[slot] == 0) {
+                        touched[candidates++] = slot;
+                    }
+                    scores[slot] += cursor.score(termPostings.frequencies[position], docLengths[doc]);
+                    position++;
+                }
+                cursor.position = position;
+            }
+            if (cursors.length - essential > 1) {
+                Arrays.sort(touched, 0, candidates);
+            }
+
+            for (int c = 0; c < candidates; c++) {
+                int slot = touched[c];
+                int doc = windowStart + slot;
+                float score = scores[slot];
+                scores[slot] = 0;
+                if (!deleted.get(doc) && filter.test(docRegions[doc], docTypes[doc])) {
+                    collect(cursors, bounds, essential, doc, score, best);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scores the documents of the window which have all the required terms, found by leapfrogging
+     * over their postings from the term with the fewest documents
+     *
+     * @param required First of the required terms, which follow the others in the order of their bounds
+     */
+    private void scoreConjunction(TermCursor[] cursors, double[] bounds, int required, int windowStart, int windowEnd,
+                                  TopDocs best, SearchFilter filter) {
+        TermCursor[] conjunction = Arrays.copyOfRange(cursors, required, cursors.length);
+        Arrays.sort(conjunction, Comparator.comparingInt(cursor -> cursor.postings.size));
+        TermCursor lead = conjunction[0];
+        int doc = lead.advance(windowStart);
+        while (doc < windowEnd) {
+            int next = doc;
+            for (int i = 1; i < conjunction.length && next == doc; i++) {
+                next = conjunction[i].advance(doc);
+            }
+            if (next != doc) {
+                doc = lead.advance(next);
+                continue;
+            }
+            if (!deleted.get(doc) && filter.test(docRegions[doc], docTypes[doc])) {
+                float score = 0;
+                for (TermCursor cursor : conjunction) {
+                    score += cursor.score(cursor.postings.frequencies[cursor.position], docLengths[doc]);
+                }
+                collect(cursors, bounds, required, doc, score, best);
+            }
+            doc = lead.advance(doc + 1);
+        }
+    }
+
+    /**
+     * Adds the scores of the terms before scored to a candidate, best bound first, and keeps it if it gets into the top k
+     *
+     * @param scored First term whose score is already part of the score
+     */
+    private void collect(TermCursor[] cursors, double[] bounds, int scored, int doc, float score, TopDocs best) {
+        for (int i = scored - 1; i >= 0 && !(best.isFull() && score + bounds[i] <= best.threshold()); i--) {
+            TermCursor cursor = cursors[i];
+            if (cursor.advance(doc) == doc) {
+                score += cursor.score(cursor.postings.frequencies[cursor.position], docLengths[doc]);
+            }
+        }
+        if (!best.isFull() || score > best.threshold()) {
+            best.add(doc, score);
+        }
+    }
+
+    /**
+     * Scores arbitrary texts by BM25 against the query, using the term statistics of the indexed properties
+     *
+     * @param query Free text query
+     * @param texts Texts to score, e.g. retrieved segments
+     * @return Score of every text, in the order of the texts
+     */
+    public List<Double> score(String query, List<String> texts) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+
+        lock.readLock().lock();
+        try {
+            int documents = Math.max(docsById.size(), 1);
+            double averageLength = docsById.isEmpty() ? 1 : (double) totalLength / documents;
+
+            Map<String, Double> idfs = new HashMap<>();
+            for (String term : terms) {
+                Postings termPostings = postings.get(term);
+                int frequency = termPostings == null ? 0 : termPostings.live;
+                idfs.put(term, Math.log(1 + (documents - frequency + 0.5) / (frequency + 0.5)));
+            }
+
+            List<Double> scores = new ArrayList<>(texts.size());
+            for (String text : texts) {
+                List<String> tokens = tokenize(text);
+                Map<String, Integer> frequencies = new HashMap<>();
+                for (String token : tokens) {
+                    if (idfs.containsKey(token)) {
+                        frequencies.merge(token, 1, Integer::sum);
+                    }
+                }
+                double norm = K1 * (1 - B + B * tokens.size() / averageLength);
+                double score = 0;
+                for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+                    score += idfs.get(frequency.getKey()) * frequency.getValue() * (K1 + 1) / (frequency.getValue() + norm);
+                }
+                scores.add(score);
+            }
+            return scores;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether an indexed property lies in the region, used to recognize regions in queries
+     */
+    public boolean isRegion(String region) {
+        lock.readLock().lock();
+        try {
+            return regionCounts.containsKey(region);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeDocument(String id) {
+        Integer previous = docsById.remove(id);
+        if (previous != null) {
+            deleted.set(previous);
+            totalLength -= docLengths[previous];
+            if (docRegions[previous] != null) {
+                regionCounts.computeIfPresent(docRegions[previous], (region, count) -> count == 1 ? null : count - 1);
+            }
+            for (Postings termPostings : docPostings[previous]) {
+                termPostings.live--;
+            }
+            docPostings[previous] = null;
+        }
+    }
+
+    /**
+     * Drops the tombstones from the postings once they exceed the compaction ratio, renumbering the live documents
+     */
+    private void compactIfNeeded() {
+        int tombstones = deleted.cardinality();
+        if (tombstones == 0 || tombstones <= docIds.size() * compactionRatio) {
+            return;
+        }
+        int[] renumbered = new int[docIds.size()];
+        List<String> liveIds = new ArrayList<>(docsById.size());
+        for (int doc = 0; doc < docIds.size(); doc++) {
+            renumbered[doc] = deleted.get(doc) ? -1 : liveIds.size();
+            if (renumbered[doc] >= 0) {
+                int live = renumbered[doc];
+                liveIds.add(docIds.get(doc));
+                docLengths[live] = docLengths[doc];
+                docRegions[live] = docRegions[doc];
+                docTypes[live] = docTypes[doc];
+                docPostings[live] = docPostings[doc];
+            }
+        }
+        Arrays.fill(docRegions, liveIds.size(), docIds.size(), null);
+        Arrays.fill(docTypes, liveIds.size(), docIds.size(), null);
+        Arrays.fill(docPostings, liveIds.size(), docIds.size(), null);
+
+        postings.values().removeIf(termPostings -> termPostings.compact(renumbered) == 0);
+        docIds.clear();
+        docIds.addAll(liveIds);
+        docsById.clear();
+        for (int doc = 0; doc < docIds.size(); doc++) {
+            docsById.put(docIds.get(doc), doc);
+        }
+        deleted.clear();
+        Log.debugf("Compacted the lexical index, dropped %s tombstones", tombstones);
+    }
+
+    /**
+     * Fills {@link #docPostings} from the postings of a restored snapshot
+     */
+    private void linkDocuments(int documents) {
+        int[] terms = new int[documents];
+        for (Postings termPostings : postings.values()) {
+            for (int i = 0; i < termPostings.size; i++) {
+                terms[termPostings.docs[i]]++;
+            }
+        }
+        for (int doc = 0; doc < documents; doc++) {
+            docPostings[doc] = new Postings[terms[doc]];
+        }
+        for (Postings termPostings : postings.values()) {
+            for (int i = 0; i < termPostings.size; i++) {
+                int doc = termPostings.docs[i];
+                docPostings[doc][--terms[doc]] = termPostings;
+            }
+        }
+    }
+
+    /**
+     * Writes the live documents renumbered without gaps and their postings
+     */
+    void write(Path target) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            int[] renumbered = new int[docIds.size()];
+            int live = 0;
+            for (int doc = 0; doc < docIds.size(); doc++) {
+                renumbered[doc] = deleted.get(doc) ? -1 : live++;
+            }
+
+            Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(live);
+                for (int doc = 0; doc < docIds.size(); doc++) {
+                    if (renumbered[doc] >= 0) {
+                        out.writeUTF(docIds.get(doc));
+                        out.writeInt(docLengths[doc]);
+                        writeNullable(out, docRegions[doc]);
+                        writeNullable(out, docTypes[doc]);
+                    }
+                }
+                out.writeInt(postings.size());
+                for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                    Postings termPostings = entry.getValue();
+                    int count = 0;
+                    for (int i = 0; i < termPostings.size; i++) {
+                        if (renumbered[termPostings.docs[i]] >= 0) {
+                            count++;
+                        }
+                    }
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(count);
+                    for (int i = 0; i < termPostings.size; i++) {
+                        int doc = renumbered[termPostings.docs[i]];
+                        if (doc >= 0) {
+                            out.writeInt(doc);
+                            out.writeInt(termPostings.frequencies[i]);
+                        }
+                    }
+                }
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void read(Path source) throws IOException {
+        lock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            int version = in.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported lexical index version " + version);
+            }
+            clear();
+            int documents = in.readInt();
+            docLengths = new int[Math.max(documents, 1024)];
+            docRegions = new String[docLengths.length];
+            docTypes = new String[docLengths.length];
+            docPostings = new Postings[docLengths.length][];
+            for (int doc = 0; doc < documents; doc++) {
+                String id = in.readUTF();
+                docIds.add(id);
+                docsById.put(id, doc);
+                docLengths[doc] = in.readInt();
+                docRegions[doc] = readNullable(in);
+                docTypes[doc] = readNullable(in);
+                totalLength += docLengths[doc];
+                if (docRegions[doc] != null) {
+                    regionCounts.merge(docRegions[doc], 1, Integer::sum);
+                }
+            }
+            int terms = in.readInt();
+            for (int term = 0; term < terms; term++) {
+                String text = in.readUTF();
+                int count = in.readInt();
+                Postings termPostings = new Postings();
+                for (int i = 0; i < count; i++) {
+                    int doc = in.readInt();
+                    termPostings.add(doc, in.readInt(), docLengths[doc]);
+                }
+                if (count > 0) {
+                    postings.put(text, termPostings);
+                }
+            }
+            linkDocuments(documents);
+        } catch (IOException e) {
+            clear();
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void clear() {
+        postings.clear();
+        docIds.clear();
+        docsById.clear();
+        deleted.clear();
+        regionCounts.clear();
+        totalLength = 0;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean letterOrDigit = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+        // Documents which are not tombstones, the document frequency of the term
+        private int live;
+        // Bounds of the term score, left as they are when documents are removed as they stay upper bounds
+        private int maxFrequency;
+        private int minLength = Integer.MAX_VALUE;
+
+        void add(int doc, int frequency, int length) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docs[size] = doc;
+            frequencies[size] = frequency;
+            size++;
+            live++;
+            maxFrequency = Math.max(maxFrequency, frequency);
+            minLength = Math.min(minLength, length);
+        }
+
+        /**
+         * Drops the entries of removed documents and renumbers the others in place
+         *
+         * @return Number of entries left
+         */
+        int compact(int[] renumbered) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int doc = renumbered[docs[i]];
+                if (doc >= 0) {
+                    docs[kept] = doc;
+                    frequencies[kept++] = frequencies[i];
+                }
+            }
+            size = kept;
+            return kept;
+        }
+    }
+    /**
+     * Position of a search in the postings of one query term
+     */
+    private static class TermCursor {
+        private final Postings postings;
+        private final double idf;
+        private final double averageLength;
+        // Highest score the term can add to a document, widened so float rounding of the sums never prunes a hit
+        private final double upperBound;
+        private int position;
+
+        TermCursor(Postings postings, double idf, double averageLength) {
+            this.postings = postings;
+            this.idf = idf;
+            this.averageLength = averageLength;
+            this.upperBound = score(postings.maxFrequency, postings.minLength) * (1 + 1e-5);
+        }
+
+        double score(int frequency, int length) {
+            return idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+        }
+
+        /**
+         * @return Current document, {@link Integer#MAX_VALUE} past the end of the postings
+         */
+        int doc() {
+            return position < postings.size ? postings.docs[position] : Integer.MAX_VALUE;
+        }
+
+        /**
+         * Gallops forward to the first document at or after the target
+         *
+         * @return That document, {@link Integer#MAX_VALUE} past the end of the postings
+         */
+        int advance(int target) {
+            int[] docs = postings.docs;
+            int low = position;
+            int step = 1;
+            int high = position;
+            while (high < postings.size && docs[high] < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, postings.size);
+            // docs[low - 1] < target and docs[high] >= target, or high is the end of the postings
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (docs[middle] < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            position = low;
+            return doc();
+        }
+    }
+
+    /**
+     * Min-heap of the k best documents, the worst on top. Of equal scores the lower ordinal ranks first,
+     * search adds documents in ascending order so an equal score never replaces a document in the heap.
+     */
+    private static class TopDocs {
+        private final int[] docs;
+        private final float[] scores;
+        private int size;
+
+        TopDocs(int k) {
+            docs = new int[k];
+            scores = new float[k];
+        }
+
+        boolean isFull() {
+            return size == docs.length;
+        }
+
+        /**
+         * Score a document must exceed to get in once the heap is full
+         */
+        float threshold() {
+            return scores[0];
+        }
+
+        void add(int doc, float score) {
+            if (size < docs.length) {
+                int i = size++;
+                while (i > 0 && worse(doc, score, docs[(i - 1) / 2], scores[(i - 1) / 2])) {
+                    docs[i] = docs[(i - 1) / 2];
+                    scores[i] = scores[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                docs[i] = doc;
+                scores[i] = score;
+                return;
+            }
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && worse(docs[child + 1], scores[child + 1], docs[child], scores[child])) {
+                    child++;
+                }
+                if (!worse(docs[child], scores[child], doc, score)) {
+                    break;
+                }
+                docs[i] = docs[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            docs[i] = doc;
+            scores[i] = score;
+        }
+
+        int[] docsBestFirst() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> -scores[i]).thenComparingInt(i -> docs[i]));
+            int[] best = new int[size];
+            for (int i = 0; i < size; i++) {
+                best[i] = docs[order[i]];
+            }
+            return best;
+        }
+
+        private static boolean worse(int doc, float score, int otherDoc, float otherScore) {
+            return score < otherScore || score == otherScore && doc > otherDoc;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.scoring.ScoringModel;
+import io.quarkus.arc.DefaultBean;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.List;
+
+/**
+ * Scores retrieved segments by BM25 against the query with the statistics of {@link LexicalIndex}.
+ * Used by {@link Reranker} unless the application provides another {@link ScoringModel} bean, e.g. a cross-encoder.
+ */
+@DefaultBean
+@ApplicationScoped
+public class LexicalScoringModel implements ScoringModel {
+
+    private final LexicalIndex lexicalIndex;
+
+    LexicalScoringModel(LexicalIndex lexicalIndex) {
+        this.lexicalIndex = lexicalIndex;
+    }
+
+    @Override
+    public Response<List<Double>> scoreAll(List<TextSegment> segments, String query) {
+        return Response.from(lexicalIndex.score(query, segments.stream().map(TextSegment::text).toList()));
+    }
+}
@@ -0,0 +1,204 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Alternative;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Embedding store with one {@link HnswEmbeddingStore} per region, enabled by {@code search.vector-store=hnsw-partitioned}.
+ * Segments are routed by their region metadata, so a search filtered on a region traverses only that region's graph
+ * instead of skipping the other regions' nodes. Unfiltered searches query every partition and merge the matches.
+ * Every partition is persisted to its own file and journal in {@code search.hnsw.partition-directory}.
+ */
+@Alternative
+@Priority(1)
+@ApplicationScoped
+@IfBuildProperty(name = "search.vector-store", stringValue = "hnsw-partitioned")
+public class PartitionedEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    // Regions only consist of words and spaces, so this name never collides with one
+    private static final String UNASSIGNED = "_unassigned";
+    private static final String SUFFIX = ".index";
+
+    private final Path directory;
+    private final Function<Path, HnswEmbeddingStore> partitionFactory;
+    private final Map<String, HnswEmbeddingStore> partitions = new ConcurrentHashMap<>();
+
+    PartitionedEmbeddingStore(
+            @ConfigProperty(name = "quarkus.langchain4j.pgvector.dimension") int dimension,
+            @ConfigProperty(name = "search.hnsw.m", defaultValue = "16") int m,
+            @ConfigProperty(name = "search.hnsw.ef-construction", defaultValue = "200") int efConstruction,
+            @ConfigProperty(name = "search.hnsw.ef-search", defaultValue = "64") int efSearch,
+            @ConfigProperty(name = "search.hnsw.partition-directory", defaultValue = "data/hnsw-partitions") Path directory,
+            @ConfigProperty(name = "search.vector-quantization", defaultValue = "none") Quantization quantization,
+            @ConfigProperty(name = "search.vector-quantization.rerank-factor", defaultValue = "4") int rerankFactor,
+            @ConfigProperty(name = "search.hnsw.compaction-ratio", defaultValue = "0.2") double compactionRatio
+    ) {
+        this.directory = directory;
+        this.partitionFactory = file -> new HnswEmbeddingStore(
+                dimension, m, efConstruction, efSearch, file, 0, quantization, rerankFactor, compactionRatio);
+    }
+
+    void onStart(@Observes StartupEvent event) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            Log.info("No HNSW partitions in %s, starting empty".formatted(directory));
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            // A partition created after the last shutdown only has a journal
+            files.map(file -> file.getFileName().toString())
+                    .map(name -> name.endsWith(HnswEmbeddingStore.JOURNAL_SUFFIX)
+                            ? name.substring(0, name.length() - HnswEmbeddingStore.JOURNAL_SUFFIX.length())
+                            : name)
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .distinct()
+                    .forEach(name -> partition(name.substring(0, name.length() - SUFFIX.length()).replace('-', ' ')).open());
+        }
+        Log.info("Loaded %s HNSW partitions from %s".formatted(partitions.size(), directory));
+    }
+
+    void onStop(@Observes ShutdownEvent event) throws IOException {
+        Files.createDirectories(directory);
+        partitions.values().forEach(HnswEmbeddingStore::close);
+    }
+
+    // ImportService fires the event before it stores the content hashes of the batch
+    void onPropertiesChanged(@Observes PropertiesChanged event) {
+        partitions.values().forEach(HnswEmbeddingStore::checkpoint);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return add(embedding, null);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), textSegment == null ? null : List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+        List<String> newIds = embeddings.stream().map(embedding -> UUID.randomUUID().toString()).toList();
+        addAll(newIds, embeddings, textSegments);
+        return newIds;
+    }
+
+    @Override
+    public void addAll(List<String> newIds, List<Embedding> embeddings, List<TextSegment> textSegments) {
+        Map<String, List<Integer>> byRegion = new LinkedHashMap<>();
+        for (int i = 0; i < embeddings.size(); i++) {
+            String region = textSegments == null ? null : textSegments.get(i).metadata().getString("region");
+            byRegion.computeIfAbsent(region == null ? UNASSIGNED : region, key -> new ArrayList<>()).add(i);
+        }
+
+        byRegion.forEach((region, indexes) -> partition(region).addAll(
+                indexes.stream().map(newIds::get).toList(),
+                indexes.stream().map(embeddings::get).toList(),
+                textSegments == null ? null : indexes.stream().map(textSegments::get).toList()));
+    }
+
+    @Override
+    public void remove(String id) {
+        removeAll(List.of(id));
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        partitions.values().forEach(partition -> partition.removeAll(idsToRemove));
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        String region = region(filter);
+        if (region != null) {
+            HnswEmbeddingStore partition = partitions.get(region);
+            if (partition != null) {
+                partition.removeAll(filter);
+            }
+            return;
+        }
+        partitions.values().forEach(partition -> partition.removeAll(filter));
+    }
+
+    @Override
+    public void removeAll() {
+        partitions.values().forEach(HnswEmbeddingStore::removeAll);
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        String region = region(request.filter());
+        if (region != null) {
+            HnswEmbeddingStore partition = partitions.get(region);
+            return partition == null ? new EmbeddingSearchResult<>(List.of()) : partition.search(request);
+        }
+
+        List<EmbeddingMatch<TextSegment>> matches = partitions.values().stream()
+                .flatMap(partition -> partition.search(request).matches().stream())
+                .sorted(Comparator.comparingDouble((EmbeddingMatch<TextSegment> match) -> match.score()).reversed())
+                .limit(request.maxResults())
+                .toList();
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    private HnswEmbeddingStore partition(String region) {
+        return partitions.computeIfAbsent(region,
+                key -> partitionFactory.apply(directory.resolve(key.replace(' ', '-') + SUFFIX)));
+    }
+
+    /**
+     * Region a filter requires, found in an equality on the region key or in either side of a conjunction
+     */
+    private static String region(Filter filter) {
+        if (filter instanceof IsEqualTo equal && "region".equals(equal.key())) {
+            return String.valueOf(equal.comparisonValue());
+        }
+        if (filter instanceof And and) {
+            String left = region(and.left());
+            return left != null ? left : region(and.right());
+        }
+        return null;
+    }
+}
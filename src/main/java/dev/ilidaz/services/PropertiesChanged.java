@@ -0,0 +1,11 @@
+package dev.ilidaz.services;
+
+import java.util.Collection;
+
+/**
+ * Fired by {@link ImportService} after listings were stored or re-embedded
+ *
+ * @param ids Ids of the changed properties
+ */
+public record PropertiesChanged(Collection<String> ids) {
+}
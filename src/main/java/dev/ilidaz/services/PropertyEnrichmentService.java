@@ -0,0 +1,228 @@
+package dev.ilidaz.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.ilidaz.clients.BrokerClient;
+import dev.ilidaz.clients.dtos.BrokerPropertyDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.quarkus.logging.Log;
+import io.quarkus.virtual.threads.VirtualThreads;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Loads broker properties through the {@link BrokerClient} with a per id cache.
+ * Ids missing from the cache are collected for a short window, so concurrent chats share one batched request,
+ * and slow batches are hedged with a second request.
+ */
+@ApplicationScoped
+public class PropertyEnrichmentService {
+
+    private final BrokerClient brokerClient;
+    private final DownstreamLimiter limiter;
+    private final SearchMetrics metrics;
+    private final ExecutorService virtualThreads;
+    private final Cache<String, BrokerPropertyDto> cache;
+    private final ScheduledExecutorService scheduler;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final long hedgeDelayMillis;
+
+    private Map<String, CompletableFuture<Optional<BrokerPropertyDto>>> pending = new HashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    PropertyEnrichmentService(
+            BrokerClient brokerClient,
+            DownstreamLimiter limiter,
+            SearchMetrics metrics,
+            @VirtualThreads ExecutorService virtualThreads,
+            @ConfigProperty(name = "enrichment.cache.maximum-size", defaultValue = "5000") long maximumSize,
+            @ConfigProperty(name = "enrichment.cache.expire-after-write", defaultValue = "PT10M") Duration expireAfterWrite,
+            @ConfigProperty(name = "enrichment.batch.window-millis", defaultValue = "5") long windowMillis,
+            @ConfigProperty(name = "enrichment.batch.max-size", defaultValue = "100") int maxBatchSize,
+            @ConfigProperty(name = "enrichment.hedge.delay-millis", defaultValue = "300") long hedgeDelayMillis,
+            MeterRegistry registry
+    ) {
+        this.brokerClient = brokerClient;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.virtualThreads = virtualThreads;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "broker-properties");
+    }
+
+    /**
+     * Finds broker properties by ids, blocking until the batched request completes
+     *
+     * @param ids Property ids, duplicates are ignored
+     * @return Found properties in the order of the ids
+     */
+    public List<BrokerPropertyDto> properties(List<String> ids) {
+        try {
+            return propertiesAsync(ids).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * Finds broker properties by ids
+     *
+     * @param ids Property ids, duplicates are ignored
+     * @return Found properties in the order of the ids
+     */
+    public CompletableFuture<List<BrokerPropertyDto>> propertiesAsync(List<String> ids) {
+        List<CompletableFuture<Optional<BrokerPropertyDto>>> lookups = ids.stream()
+                .distinct()
+                .map(this::lookup)
+                .toList();
+
+        return CompletableFuture.allOf(lookups.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> lookups.stream()
+                        .map(CompletableFuture::join)
+                        .flatMap(Optional::stream)
+                        .toList());
+    }
+
+    /**
+     * Broker properties still in the cache, used when the broker can't be reached
+     *
+     * @param ids Property ids, duplicates are ignored
+     * @return Cached properties in the order of the ids
+     */
+    public List<BrokerPropertyDto> cached(List<String> ids) {
+        return ids.stream()
+                .distinct()
+                .map(cache::getIfPresent)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    private CompletableFuture<Optional<BrokerPropertyDto>> lookup(String id) {
+        BrokerPropertyDto cached = cache.getIfPresent(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(Optional.of(cached));
+        }
+
+        synchronized (this) {
+            CompletableFuture<Optional<BrokerPropertyDto>> future = pending.computeIfAbsent(id, key -> new CompletableFuture<>());
+            if (pending.size() >= maxBatchSize) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+            return future;
+        }
+    }
+
+    private synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<String, CompletableFuture<Optional<BrokerPropertyDto>>> batch = pending;
+        pending = new HashMap<>();
+        virtualThreads.execute(() -> fetch(batch));
+    }
+
+    private void fetch(Map<String, CompletableFuture<Optional<BrokerPropertyDto>>> batch) {
+        try {
+            List<String> ids = new ArrayList<>(batch.keySet());
+            Map<String, BrokerPropertyDto> found = metrics.time(Stage.BROKER, () -> hedged(ids)).stream()
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toMap(BrokerPropertyDto::getId, Function.identity(), (first, second) -> first));
+
+            cache.putAll(found);
+            metrics.results("enrichment.requested", ids.size());
+            metrics.results("enrichment.found", found.size());
+            batch.forEach((id, future) -> future.complete(Optional.ofNullable(found.get(id))));
+        } catch (Exception e) {
+            Log.warn("Failed to load %s broker properties".formatted(batch.size()), e);
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Sends a second identical request when the first one takes longer than hedge delay-millis, or right away
+     * when it fails, and returns the first response. Cuts the tail latency of the broker at the cost of
+     * duplicate requests for the slowest batches.
+     */
+    private List<BrokerPropertyDto> hedged(List<String> ids) {
+        CompletableFuture<List<BrokerPropertyDto>> result = new CompletableFuture<>();
+        AtomicBoolean hedgeSent = new AtomicBoolean(hedgeDelayMillis <= 0);
+        AtomicInteger failures = new AtomicInteger();
+        int attempts = hedgeDelayMillis <= 0 ? 1 : 2;
+
+        Runnable attempt = new Runnable() {
+            @Override
+            public void run() {
+                virtualThreads.execute(() -> {
+                    try {
+                        result.complete(limiter.call(Downstream.BROKER, () -> brokerClient.properties(ids)));
+                    } catch (Exception e) {
+                        int failed = failures.incrementAndGet();
+                        if (hedgeSent.compareAndSet(false, true)) {
+                            run();
+                        } else if (failed == attempts) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+                });
+            }
+        };
+
+        attempt.run();
+        if (hedgeDelayMillis > 0) {
+            scheduler.schedule(() -> {
+                if (!result.isDone() && hedgeSent.compareAndSet(false, true)) {
+                    metrics.count("enrichment.hedge", "sent", 1);
+                    attempt.run();
+                }
+            }, hedgeDelayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,188 @@
+package dev.ilidaz.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Single pass scanner for property ids in bot answers.
+ * Finds UUIDs, either bare or wrapped in {"id": "..."} placeholders, without regular expressions.
+ * An instance can be fed streamed tokens, a match split between two tokens is reported once it is complete,
+ * or once the stream is finished.
+ */
+public final class PropertyIdScanner {
+
+    private static final int UUID_LENGTH = 36;
+    private static final int NO_MATCH = -1;
+    private static final int INCOMPLETE = -2;
+
+    private final StringBuilder text = new StringBuilder();
+    private int position;
+    private int idStart;
+
+    /**
+     * Appends the next chunk of a streamed text
+     *
+     * @param chunk Next part of the text
+     * @return Ids completed by this chunk
+     */
+    public List<String> feed(CharSequence chunk) {
+        text.append(chunk);
+        List<String> ids = new ArrayList<>();
+        position = scan(text, position, true, ids::add);
+        return ids;
+    }
+
+    /**
+     * Ends a streamed text. Matches still waiting for more text are completed like {@link #findIds} does,
+     * e.g. the id of a placeholder missing its closing brace is reported as a bare id.
+     *
+     * @return Ids completed by the end of the text
+     */
+    public List<String> finish() {
+        List<String> ids = new ArrayList<>();
+        position = scan(text, position, false, ids::add);
+        return ids;
+    }
+
+    /**
+     * @return Text fed so far
+     */
+    public String text() {
+        return text.toString();
+    }
+
+    /**
+     * Finds all property ids in a text
+     *
+     * @param text The text to search
+     * @return Ids in order of appearance
+     */
+    public static List<String> findIds(CharSequence text) {
+        List<String> ids = new ArrayList<>();
+        new PropertyIdScanner().scan(text, 0, false, ids::add);
+        return ids;
+    }
+
+    /**
+     * Replaces {"id": "..."} placeholders whose id has a replacement, other placeholders are kept
+     *
+     * @param text         Text containing placeholders
+     * @param replacements Replacement by id
+     * @return Text with placeholders replaced
+     */
+    public static String replacePlaceholders(CharSequence text, Map<String, String> replacements) {
+        if (replacements.isEmpty()) {
+            return text.toString();
+        }
+
+        PropertyIdScanner scanner = new PropertyIdScanner();
+        StringBuilder result = new StringBuilder(text.length());
+        int copied = 0;
+        int i = 0;
+
+        while (i < text.length()) {
+            if (text.charAt(i) == '{') {
+                int end = scanner.placeholderEnd(text, i);
+                if (end > 0) {
+                    String id = text.subSequence(scanner.idStart, scanner.idStart + UUID_LENGTH).toString();
+                    String replacement = replacements.get(id);
+                    if (replacement != null) {
+                        result.append(text, copied, i).append(replacement);
+                        copied = end;
+                        i = end;
+                        continue;
+                    }
+                }
+            }
+            i++;
+        }
+
+        return result.append(text, copied, text.length()).toString();
+    }
+
+    /**
+     * @return Position to resume from, which is the start of an incomplete match when {@code streaming} is set
+     */
+    private int scan(CharSequence s, int from, boolean streaming, Consumer<String> ids) {
+        int i = from;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int end = NO_MATCH;
+            if (c == '{') {
+                end = placeholderEnd(s, i);
+            } else if (isHex(c)) {
+                idStart = i;
+                end = uuidEnd(s, i);
+            }
+
+            if (end == INCOMPLETE && streaming) {
+                return i;
+            }
+            if (end < 0) {
+                i++;
+                continue;
+            }
+
+            ids.accept(s.subSequence(idStart, idStart + UUID_LENGTH).toString());
+            i = end;
+        }
+        return i;
+    }
+
+    private int placeholderEnd(CharSequence s, int from) {
+        int i = expect(s, from, '{');
+        i = expect(s, skipWhitespace(s, i), '"');
+        i = expect(s, i, 'i');
+        i = expect(s, i, 'd');
+        i = expect(s, i, '"');
+        i = expect(s, skipWhitespace(s, i), ':');
+        i = expect(s, skipWhitespace(s, i), '"');
+        if (i < 0) {
+            return i;
+        }
+
+        idStart = i;
+        i = expect(s, uuidEnd(s, i), '"');
+        return expect(s, skipWhitespace(s, i), '}');
+    }
+
+    private static int uuidEnd(CharSequence s, int from) {
+        for (int k = 0; k < UUID_LENGTH; k++) {
+            if (from + k >= s.length()) {
+                return INCOMPLETE;
+            }
+            char c = s.charAt(from + k);
+            boolean dash = k == 8 || k == 13 || k == 18 || k == 23;
+            if (dash ? c != '-' : !isHex(c)) {
+                return NO_MATCH;
+            }
+        }
+        return from + UUID_LENGTH;
+    }
+
+    private static int expect(CharSequence s, int i, char expected) {
+        if (i < 0) {
+            return i;
+        }
+        if (i >= s.length()) {
+            return INCOMPLETE;
+        }
+        return s.charAt(i) == expected ? i + 1 : NO_MATCH;
+    }
+
+    private static int skipWhitespace(CharSequence s, int i) {
+        if (i < 0) {
+            return i;
+        }
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -0,0 +1,183 @@
+package dev.ilidaz.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.ilidaz.dtos.ImportJobDto;
+import dev.ilidaz.dtos.ImportJobStatus;
+import dev.ilidaz.dtos.PropertyDto;
+import dev.ilidaz.entities.Property;
+import io.quarkus.logging.Log;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind queue for imported properties.
+ * Mutations only enqueue their properties and return a job id; queued properties are written when
+ * flush-size of them are waiting or flush-latency has passed, so concurrent single item mutations
+ * share one JDBC batch and one embedAll call.
+ * Batches are written one at a time in the order they were queued, so the latest write of an id wins.
+ */
+@ApplicationScoped
+public class PropertyImportQueue {
+
+    @Inject
+    ImportService importService;
+
+    @Inject
+    SearchMetrics metrics;
+
+    private final Cache<String, ImportJob> jobs;
+    private final ScheduledExecutorService writer;
+    private final int flushSize;
+    private final long flushLatencyMillis;
+    private final int maxPending;
+
+    private List<QueuedProperty> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    PropertyImportQueue(
+            @ConfigProperty(name = "properties.write-behind.flush-size", defaultValue = "500") int flushSize,
+            @ConfigProperty(name = "properties.write-behind.flush-latency-millis", defaultValue = "200") long flushLatencyMillis,
+            @ConfigProperty(name = "properties.write-behind.max-pending", defaultValue = "50000") int maxPending,
+            @ConfigProperty(name = "properties.write-behind.job-retention", defaultValue = "PT1H") Duration jobRetention
+    ) {
+        this.flushSize = flushSize;
+        this.flushLatencyMillis = flushLatencyMillis;
+        this.maxPending = maxPending;
+        writer = Executors.newSingleThreadScheduledExecutor();
+        jobs = Caffeine.newBuilder()
+                .expireAfterWrite(jobRetention)
+                .build();
+    }
+
+    /**
+     * Queues properties for import without waiting for the database or the embedding model
+     *
+     * @param properties Properties to create or update
+     * @return Id of the import job
+     * @throws IllegalStateException if the queue is full
+     */
+    public String submit(List<PropertyDto> properties) {
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), properties.size());
+        if (properties.isEmpty()) {
+            jobs.put(job.id, job);
+            return job.id;
+        }
+
+        synchronized (this) {
+            if (pending.size() + properties.size() > maxPending) {
+                throw new IllegalStateException("Import queue is full, %s properties are waiting".formatted(pending.size()));
+            }
+            jobs.put(job.id, job);
+            properties.forEach(dto -> pending.add(new QueuedProperty(toProperty(dto), job)));
+
+            if (pending.size() >= flushSize) {
+                writer.execute(this::flush);
+            } else if (scheduledFlush == null) {
+                scheduledFlush = writer.schedule(this::flush, flushLatencyMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return job.id;
+    }
+
+    public Optional<ImportJobDto> job(String id) {
+        return Optional.ofNullable(jobs.getIfPresent(id)).map(ImportJob::toDto);
+    }
+
+    private void flush() {
+        List<QueuedProperty> queued;
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            queued = pending;
+            pending = new ArrayList<>();
+        }
+
+        for (int from = 0; from < queued.size(); from += flushSize) {
+            write(queued.subList(from, Math.min(from + flushSize, queued.size())));
+        }
+    }
+
+    private void write(List<QueuedProperty> batch) {
+        // Keep the latest write of every id, the batch is saved as a single statement batch
+        Map<String, Property> latest = new LinkedHashMap<>();
+        batch.forEach(queued -> latest.put(queued.property().getId(), queued.property()));
+
+        boolean succeeded = false;
+        try {
+            // Tagged with the write time, so the vanish sweep of a sync that is already running keeps them
+            ImportService.BatchChanges changes = metrics.time(Stage.IMPORT_SAVE,
+                    () -> importService.saveBatch(new ArrayList<>(latest.values()), System.currentTimeMillis()));
+            importService.embed(changes);
+            succeeded = true;
+        } catch (Exception e) {
+            Log.error("Error importing batch of %s properties: %s".formatted(latest.size(), e.getMessage()), e);
+        }
+
+        for (QueuedProperty queued : batch) {
+            (succeeded ? queued.job().done : queued.job().failed).incrementAndGet();
+        }
+    }
+
+    private static Property toProperty(PropertyDto data) {
+        return Property.builder()
+                .id(data.getId())
+                .title(data.getTitle())
+                .description(data.getDescription())
+                .singleLine(data.getSingleLine())
+                .build();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        // Write what is still queued before the application stops
+        writer.execute(this::flush);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record QueuedProperty(Property property, ImportJob job) {
+    }
+
+    private static class ImportJob {
+        private final String id;
+        private final int total;
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        ImportJob(String id, int total) {
+            this.id = id;
+            this.total = total;
+        }
+
+        ImportJobDto toDto() {
+            int done = this.done.get();
+            int failed = this.failed.get();
+            ImportJobStatus status = failed > 0 ? ImportJobStatus.FAILED
+                    : done == total ? ImportJobStatus.DONE
+                    : ImportJobStatus.PENDING;
+            return new ImportJobDto(id, status, total, done, failed);
+        }
+    }
+}
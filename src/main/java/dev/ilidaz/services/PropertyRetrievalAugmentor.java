@@ -12,47 +12,93 @@ import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingSearchResult;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import jakarta.enterprise.context.ApplicationScoped;
-import jakarta.inject.Inject;
 import jakarta.inject.Named;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 @Named("propertyRetriever")
 @ApplicationScoped
 public class PropertyRetrievalAugmentor implements RetrievalAugmentor {
 
-    @Inject
-    EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final DownstreamLimiter limiter;
+    private final Reranker reranker;
+    private final ContentCompressor compressor;
+    private final SearchMetrics metrics;
+    private final SearchFilterExtractor filterExtractor;
+    private final int segmentOverfetch;
 
-    @Inject
-    EmbeddingModel embeddingModel;
+    PropertyRetrievalAugmentor(
+            EmbeddingStore<TextSegment> embeddingStore,
+            @Cached EmbeddingModel embeddingModel,
+            DownstreamLimiter limiter,
+            Reranker reranker,
+            ContentCompressor compressor,
+            SearchMetrics metrics,
+            SearchFilterExtractor filterExtractor,
+            @ConfigProperty(name = "search.segment-overfetch", defaultValue = "3") int segmentOverfetch
+    ) {
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.limiter = limiter;
+        this.reranker = reranker;
+        this.compressor = compressor;
+        this.metrics = metrics;
+        this.filterExtractor = filterExtractor;
+        this.segmentOverfetch = segmentOverfetch;
+    }
 
     @Override
     public AugmentationResult augment(AugmentationRequest request) {
         // Create embedding for the query text
         String text = request.metadata().userMessage().singleText();
-        Embedding queryEmbedding = embeddingModel.embed(text).content();
-
-        // Use the search method available in your version
-        EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
-                .queryEmbedding(queryEmbedding)
-                .maxResults(5)
-                .minScore(0.9)
-                .build();
+        Embedding queryEmbedding = metrics.time(Stage.EMBEDDING, () -> embeddingModel.embed(text).content());
 
-        EmbeddingSearchResult<TextSegment> searchResult = embeddingStore.search(searchRequest);
+        // Search within the region and type named in the question
+        SearchFilter filter = filterExtractor.extract(text);
+        EmbeddingSearchResult<TextSegment> searchResult = search(queryEmbedding, filter);
+        if (searchResult.matches().isEmpty() && !filter.isEmpty()) {
+            // Nothing in the region or of the type named in the question, search the whole corpus
+            searchResult = search(queryEmbedding, SearchFilter.NONE);
+        }
+        metrics.matches("augment", searchResult.matches());
 
-        // Extract the text segments from the search result
+        // Extract the best scoring segment of every property from the search result
         List<TextSegment> relevantSegments = searchResult.matches().stream()
                 .map(EmbeddingMatch::embedded)
+                .filter(distinctBy(segment -> segment.metadata().getString("id")))
+                .limit(reranker.candidates())
                 .toList();
 
-        // Convert TextSegments to Content objects
-        List<Content> contents = relevantSegments.stream()
+        // Convert TextSegments to Content objects, keeping the reranked and compressed top-k
+        List<Content> contents = compressor.compress(text, reranker.rerank(text, relevantSegments.stream()
                 .map(Content::from)
-                .toList();
+                .toList()));
 
         // Return the original chat message and the relevant contents
         return new AugmentationResult(request.chatMessage(), contents);
     }
+
+    private EmbeddingSearchResult<TextSegment> search(Embedding queryEmbedding, SearchFilter filter) {
+        EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
+                .queryEmbedding(queryEmbedding)
+                .maxResults(reranker.candidates() * segmentOverfetch)
+                .minScore(0.9)
+                .filter(filter.toFilter())
+                .build();
+
+        return metrics.time(Stage.VECTOR_SEARCH,
+                () -> limiter.call(Downstream.DATABASE, () -> embeddingStore.search(searchRequest)));
+    }
+
+    static <T> Predicate<T> distinctBy(Function<T, String> key) {
+        Set<String> seen = new HashSet<>();
+        return value -> seen.add(key.apply(value));
+    }
 }
\ No newline at end of file
@@ -4,10 +4,14 @@ import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.util.List;
 import java.util.function.Supplier;
 
 @ApplicationScoped
@@ -15,16 +19,53 @@ public class PropertyRetrievalAugmentorSupplier implements Supplier<RetrievalAug
 
     private final RetrievalAugmentor augmentor;
 
-    PropertyRetrievalAugmentorSupplier(EmbeddingStore<TextSegment> store, EmbeddingModel model) {
-        EmbeddingStoreContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
+    PropertyRetrievalAugmentorSupplier(
+            EmbeddingStore<TextSegment> store,
+            @Cached EmbeddingModel model,
+            LexicalIndex lexicalIndex,
+            Reranker reranker,
+            ContentCompressor compressor,
+            SearchMetrics metrics,
+            SearchFilterExtractor filterExtractor,
+            DownstreamLimiter limiter,
+            @ConfigProperty(name = "search.hybrid.enabled", defaultValue = "true") boolean hybrid,
+            @ConfigProperty(name = "search.hybrid.rrf-k", defaultValue = "60") int rrfK,
+            @ConfigProperty(name = "search.segment-overfetch", defaultValue = "3") int segmentOverfetch
+    ) {
+        int candidates = reranker.candidates();
+        ContentRetriever segmentRetriever = EmbeddingStoreContentRetriever.builder()
                 .embeddingModel(model)
                 .embeddingStore(store)
                 .minScore(0.7)
-                .maxResults(5)
+                .maxResults(candidates * segmentOverfetch)
                 .build();
+        // Restricted to the region and type named in the query
+        ContentRetriever filteredRetriever = EmbeddingStoreContentRetriever.builder()
+                .embeddingModel(model)
+                .embeddingStore(store)
+                .minScore(0.7)
+                .maxResults(candidates * segmentOverfetch)
+                .dynamicFilter(query -> filterExtractor.extract(query.text()).toFilter())
+                .build();
+        // Keeps the best scoring chunk of every property, falls back to the whole corpus when the filter finds nothing
+        ContentRetriever contentRetriever = query -> metrics.time(Stage.RETRIEVAL, () -> {
+                    List<Content> contents = filteredRetriever.retrieve(query);
+                    if (contents.isEmpty() && !filterExtractor.extract(query.text()).isEmpty()) {
+                        contents = segmentRetriever.retrieve(query);
+                    }
+                    return contents;
+                }).stream()
+                .filter(PropertyRetrievalAugmentor.distinctBy(content -> content.textSegment().metadata().getString("id")))
+                .limit(candidates)
+                .toList();
+        if (hybrid) {
+            contentRetriever = new HybridContentRetriever(contentRetriever, lexicalIndex, filterExtractor, limiter, candidates, rrfK);
+        }
+        // Only the reranked top-k candidates go into the prompt, trimmed to their relevant sentences
         augmentor = DefaultRetrievalAugmentor
                 .builder()
                 .contentRetriever(contentRetriever)
+                .contentAggregator(new CompressingContentAggregator(new RerankingContentAggregator(reranker), compressor))
                 .build();
     }
 
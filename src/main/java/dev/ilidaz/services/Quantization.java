@@ -0,0 +1,16 @@
+package dev.ilidaz.services;
+
+/**
+ * Representation the in-process vector index traverses its graph with
+ */
+public enum Quantization {
+    /**
+     * Full float vectors kept off-heap
+     */
+    NONE,
+    /**
+     * One signed byte per dimension plus a scale per vector kept off-heap, the float vectors are memory-mapped
+     * from disk and only read to re-rank the best candidates
+     */
+    INT8
+}
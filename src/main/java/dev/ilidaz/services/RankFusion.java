@@ -0,0 +1,36 @@
+package dev.ilidaz.services;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reciprocal rank fusion of several rankings of property ids
+ */
+public final class RankFusion {
+
+    private RankFusion() {
+    }
+
+    /**
+     * Merges rankings by summing 1 / (k + rank) of every id over all rankings
+     *
+     * @param k        Damping constant, 60 in the original paper
+     * @param rankings Ids ordered best first
+     * @return Distinct ids ordered by fused score, ties in the order they first appear in the rankings
+     */
+    @SafeVarargs
+    public static List<String> fuse(int k, List<String>... rankings) {
+        // Insertion order and the stable sort make ties deterministic
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<String> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                scores.merge(ranking.get(rank), 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+}
@@ -0,0 +1,110 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.model.scoring.ScoringModel;
+import dev.langchain4j.rag.content.Content;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.virtual.threads.VirtualThreads;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+/**
+ * Second retrieval stage: reorders over-fetched candidates with the {@link ScoringModel} and keeps the best top-k.
+ * Scoring has a per request latency budget, when it is exceeded or fails the candidates keep their retrieval order.
+ */
+@ApplicationScoped
+public class Reranker {
+
+    private final ScoringModel scoringModel;
+    private final ExecutorService virtualThreads;
+    private final SearchMetrics metrics;
+    private final boolean enabled;
+    private final int candidates;
+    private final int topK;
+    private final long budgetMillis;
+    private final Counter reranked;
+    private final Counter fallbacks;
+
+    Reranker(
+            ScoringModel scoringModel,
+            @VirtualThreads ExecutorService virtualThreads,
+            SearchMetrics metrics,
+            @ConfigProperty(name = "search.rerank.enabled", defaultValue = "true") boolean enabled,
+            @ConfigProperty(name = "search.rerank.candidates", defaultValue = "20") int candidates,
+            @ConfigProperty(name = "search.rerank.top-k", defaultValue = "5") int topK,
+            @ConfigProperty(name = "search.rerank.budget-millis", defaultValue = "50") long budgetMillis,
+            MeterRegistry registry
+    ) {
+        this.scoringModel = scoringModel;
+        this.virtualThreads = virtualThreads;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.candidates = candidates;
+        this.topK = topK;
+        this.budgetMillis = budgetMillis;
+        reranked = registry.counter("search.rerank", "result", "reranked");
+        fallbacks = registry.counter("search.rerank", "result", "fallback");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Number of candidates the first stage should retrieve, top-k when reranking is disabled
+     */
+    public int candidates() {
+        return enabled ? Math.max(candidates, topK) : topK;
+    }
+
+    /**
+     * Orders the contents by their score against the query
+     *
+     * @param query    Text of the user query
+     * @param contents Candidates in retrieval order
+     * @return At most top-k contents, best first
+     */
+    public List<Content> rerank(String query, List<Content> contents) {
+        return metrics.time(Stage.RERANK, () -> rerankWithinBudget(query, contents));
+    }
+
+    private List<Content> rerankWithinBudget(String query, List<Content> contents) {
+        if (!enabled || contents.size() <= 1) {
+            return contents.stream().limit(topK).toList();
+        }
+
+        CompletableFuture<List<Double>> scoring = CompletableFuture.supplyAsync(
+                () -> scoringModel.scoreAll(contents.stream().map(Content::textSegment).toList(), query).content(),
+                virtualThreads);
+        try {
+            List<Double> scores = scoring.get(budgetMillis, TimeUnit.MILLISECONDS);
+            reranked.increment();
+            return IntStream.range(0, contents.size())
+                    .boxed()
+                    // Stable sort, equal scores keep the retrieval order
+                    .sorted(Comparator.comparingDouble(i -> -scores.get(i)))
+                    .limit(topK)
+                    .map(contents::get)
+                    .toList();
+        } catch (TimeoutException e) {
+            scoring.cancel(true);
+            Log.debugf("Reranking %d candidates exceeded %d ms, using retrieval order", contents.size(), budgetMillis);
+        } catch (ExecutionException e) {
+            Log.warn("Reranking failed, using retrieval order", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fallbacks.increment();
+        return contents.stream().limit(topK).toList();
+    }
+}
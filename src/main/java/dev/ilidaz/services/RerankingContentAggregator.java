@@ -0,0 +1,35 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content aggregator handing the retrieved candidates of every query to the {@link Reranker}
+ */
+public class RerankingContentAggregator implements ContentAggregator {
+
+    private final Reranker reranker;
+
+    public RerankingContentAggregator(Reranker reranker) {
+        this.reranker = reranker;
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        List<Content> aggregated = new ArrayList<>();
+        queryToContents.forEach((query, contents) -> {
+            List<Content> candidates = contents.stream()
+                    .flatMap(List::stream)
+                    .filter(PropertyRetrievalAugmentor.distinctBy(content -> content.textSegment().metadata().getString("id")))
+                    .toList();
+            aggregated.addAll(reranker.rerank(query.text(), candidates));
+        });
+        return aggregated;
+    }
+}
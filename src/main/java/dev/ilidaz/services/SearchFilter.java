@@ -0,0 +1,46 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+
+/**
+ * Structured restriction of a search on the region and type metadata of the segments
+ *
+ * @param region Region as derived by {@link dev.ilidaz.entities.Property#region()}, or null
+ * @param type   Type as derived by {@link dev.ilidaz.entities.Property#type()}, or null
+ */
+public record SearchFilter(String region, String type) {
+
+    public static final SearchFilter NONE = new SearchFilter(null, null);
+
+    public boolean isEmpty() {
+        return region == null && type == null;
+    }
+
+    /**
+     * Fields of this filter, missing ones taken from the other filter
+     */
+    public SearchFilter orElse(SearchFilter other) {
+        return new SearchFilter(region != null ? region : other.region, type != null ? type : other.type);
+    }
+
+    /**
+     * @return Metadata filter for the embedding store, null when nothing is restricted
+     */
+    public Filter toFilter() {
+        Filter filter = null;
+        if (region != null) {
+            filter = metadataKey("region").isEqualTo(region);
+        }
+        if (type != null) {
+            Filter byType = metadataKey("type").isEqualTo(type);
+            filter = filter == null ? byType : filter.and(byType);
+        }
+        return filter;
+    }
+
+    public boolean test(String region, String type) {
+        return (this.region == null || this.region.equals(region)) && (this.type == null || this.type.equals(type));
+    }
+}
@@ -0,0 +1,55 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Recognizes a region and a property type named in a free text query.
+ * Regions are the ones of the indexed properties, matched on up to three consecutive words, the longest first.
+ */
+@ApplicationScoped
+public class SearchFilterExtractor {
+
+    private static final int MAX_REGION_WORDS = 3;
+
+    private final LexicalIndex lexicalIndex;
+    private final boolean enabled;
+
+    SearchFilterExtractor(
+            LexicalIndex lexicalIndex,
+            @ConfigProperty(name = "search.filters.extract-from-query", defaultValue = "true") boolean enabled
+    ) {
+        this.lexicalIndex = lexicalIndex;
+        this.enabled = enabled;
+    }
+
+    public SearchFilter extract(String query) {
+        if (!enabled || query == null) {
+            return SearchFilter.NONE;
+        }
+
+        List<String> words = LexicalIndex.tokenize(query);
+        String region = null;
+        for (int length = Math.min(MAX_REGION_WORDS, words.size()); length > 0 && region == null; length--) {
+            for (int start = 0; start + length <= words.size(); start++) {
+                String candidate = String.join(" ", words.subList(start, start + length));
+                if (lexicalIndex.isRegion(candidate)) {
+                    region = candidate;
+                    break;
+                }
+            }
+        }
+
+        String type = words.stream()
+                .map(Property.TYPES::get)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+
+        return new SearchFilter(region, type);
+    }
+}
@@ -0,0 +1,134 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Micrometer meters of the search, chat and import stages, exported on /q/metrics.
+ * Stage timers publish histograms, so percentiles can be aggregated across instances.
+ */
+@ApplicationScoped
+public class SearchMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+
+    SearchMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, Timer.builder("search.stage")
+                    .description("Duration of a search, chat or import stage")
+                    .tag("stage", stage.tag())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    public <T> T time(Stage stage, Supplier<T> work) {
+        return time(null, stage, work);
+    }
+
+    /**
+     * Times the work and adds its duration to the trace of the request
+     *
+     * @param trace Trace of the request, or null
+     */
+    public <T> T time(Trace trace, Stage stage, Supplier<T> work) {
+        long started = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(trace, stage, System.nanoTime() - started);
+        }
+    }
+
+    public void record(Trace trace, Stage stage, long nanos) {
+        timers.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+        if (trace != null) {
+            trace.add(stage, nanos);
+        }
+    }
+
+    /**
+     * Records the scores of vector matches and their count
+     *
+     * @param operation find, augment or retrieve
+     */
+    public void matches(String operation, List<? extends EmbeddingMatch<?>> matches) {
+        DistributionSummary scores = DistributionSummary.builder("search.retrieval.score")
+                .description("Scores of vector matches")
+                .tag("operation", operation)
+                .publishPercentiles(0.1, 0.5, 0.9)
+                .register(registry);
+        matches.forEach(match -> scores.record(match.score()));
+        results(operation + ".matches", matches.size());
+    }
+
+    /**
+     * @param operation Operation which produced the results, e.g. find or enrichment
+     */
+    public void results(String operation, int count) {
+        DistributionSummary.builder("search.results")
+                .description("Number of results per request")
+                .tag("operation", operation)
+                .register(registry)
+                .record(count);
+    }
+
+    /**
+     * Records how many items per second a batch request processed
+     *
+     * @param operation Batch operation, e.g. findMany
+     */
+    public void throughput(String operation, int items, long nanos) {
+        DistributionSummary.builder("search.batch.throughput")
+                .description("Items processed per second by a batch request")
+                .baseUnit("items/s")
+                .tag("operation", operation)
+                .register(registry)
+                .record(items * 1e9 / Math.max(nanos, 1));
+    }
+
+    public void count(String name, String result, long amount) {
+        registry.counter(name, "result", result).increment(amount);
+    }
+
+    /**
+     * Stage breakdown of one request, logged at debug level
+     */
+    public static class Trace {
+        private final String operation;
+        private final long startedAt = System.nanoTime();
+        private final Map<Stage, Long> nanos = new EnumMap<>(Stage.class);
+
+        public Trace(String operation) {
+            this.operation = operation;
+        }
+
+        String operation() {
+            return operation;
+        }
+
+        synchronized void add(Stage stage, long duration) {
+            nanos.merge(stage, duration, Long::sum);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "%s took %d µs: %s".formatted(operation, (System.nanoTime() - startedAt) / 1000,
+                    nanos.entrySet().stream()
+                            .map(entry -> "%s %d µs".formatted(entry.getKey().tag(), entry.getValue() / 1000))
+                            .collect(Collectors.joining(", ")));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package dev.ilidaz.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the full ranking of recent paginated searches, so following pages are sliced from it
+ * instead of embedding the query and scanning the store again.
+ * Rankings are dropped after expire-after-write and whenever properties change.
+ */
+@ApplicationScoped
+public class SearchResultCache {
+
+    private final AsyncCache<Key, List<SearchService.Hit>> rankings;
+
+    SearchResultCache(
+            @ConfigProperty(name = "search.pagination.cache.maximum-size", defaultValue = "1000") long maximumSize,
+            @ConfigProperty(name = "search.pagination.cache.expire-after-write", defaultValue = "PT2M") Duration expireAfterWrite,
+            MeterRegistry registry
+    ) {
+        rankings = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(registry, rankings, "search.pages");
+    }
+
+    /**
+     * @param query    Free text query
+     * @param minScore Minimum similarity of the vector hits
+     * @param ranking  Computes the ranking on a miss, concurrent misses of the same query wait for one computation
+     * @return Hits of the query, best first
+     */
+    List<SearchService.Hit> get(String query, double minScore, Supplier<List<SearchService.Hit>> ranking) {
+        // Only an empty future is put under the cache lock. The ranking is computed afterwards on the calling thread,
+        // so it keeps the request context and doesn't block a carrier thread while holding the lock.
+        CompletableFuture<List<SearchService.Hit>> computing = new CompletableFuture<>();
+        CompletableFuture<List<SearchService.Hit>> cached = rankings.get(
+                new Key(CachedEmbeddingModel.normalize(query), minScore), (key, executor) -> computing);
+        if (cached != computing) {
+            try {
+                return cached.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            List<SearchService.Hit> hits = ranking.get();
+            computing.complete(hits);
+            return hits;
+        } catch (RuntimeException e) {
+            // Failed futures are removed by the cache, waiting requests fail with the same exception
+            computing.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    void onPropertiesChanged(@Observes PropertiesChanged event) {
+        rankings.synchronous().invalidateAll();
+    }
+
+    private record Key(String query, double minScore) {
+    }
+}
@@ -1,61 +1,441 @@
 package dev.ilidaz.services;
 
-import dev.ilidaz.clients.GraphQLApi;
 import dev.ilidaz.clients.dtos.BrokerPropertyDto;
-import dev.ilidaz.clients.dtos.PropertyFilterDto;
+import dev.ilidaz.dtos.PageInfoDto;
+import dev.ilidaz.dtos.PropertyConnectionDto;
+import dev.ilidaz.dtos.PropertyEdgeDto;
+import dev.ilidaz.dtos.PropertyField;
 import dev.ilidaz.dtos.SearchResponseDto;
 import dev.ilidaz.entities.Property;
+import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.virtual.threads.VirtualThreads;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 import io.vertx.core.json.JsonObject;
 import jakarta.enterprise.context.ApplicationScoped;
-import jakarta.inject.Inject;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.faulttolerance.exceptions.TimeoutException;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
-
-import static dev.ilidaz.services.JsonTextProcessor.findUuidsInString;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @ApplicationScoped
 public class SearchService {
-    @Inject
-    EmbeddingStore<TextSegment> embeddingStore;
-
-    @Inject
-    EmbeddingModel embeddingModel;
+    private static final String CURSOR_PREFIX = "position:";
+    static final String DEGRADED_MATCHES =
+            "I can't give a detailed answer right now, these properties match your question:";
+    static final String DEGRADED_NO_MATCHES =
+            "I can't answer right now, the team will contact you directly.";
 
-    @Inject
-    GraphQLApi graphQLApi;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final CachedEmbeddingModel embeddingModel;
+    private final ExecutorService virtualThreads;
+    private final PropertyEnrichmentService enrichment;
+    private final BotService bot;
+    private final JsonTextProcessor jsonTextProcessor;
+    private final DownstreamLimiter limiter;
+    private final SemanticAnswerCache answerCache;
+    private final LexicalIndex lexicalIndex;
+    private final ConversationMemoryProvider memories;
+    private final SearchMetrics metrics;
+    private final SearchFilterExtractor filterExtractor;
+    private final SearchResultCache resultCache;
+    private final Hydration hydration;
+    private final boolean hybrid;
+    private final int rrfK;
+    private final int segmentOverfetch;
+    private final int maxRankedResults;
+    private final int maxPageSize;
+    private final int batchConcurrency;
+    private final int batchMaxQueries;
+    private final Duration streamTokenTimeout;
 
-    @Inject
-    BotService bot;
+    SearchService(
+            EmbeddingStore<TextSegment> embeddingStore,
+            @Cached CachedEmbeddingModel embeddingModel,
+            @VirtualThreads ExecutorService virtualThreads,
+            PropertyEnrichmentService enrichment,
+            BotService bot,
+            JsonTextProcessor jsonTextProcessor,
+            DownstreamLimiter limiter,
+            SemanticAnswerCache answerCache,
+            LexicalIndex lexicalIndex,
+            ConversationMemoryProvider memories,
+            SearchMetrics metrics,
+            SearchFilterExtractor filterExtractor,
+            SearchResultCache resultCache,
+            @ConfigProperty(name = "search.hydration", defaultValue = "database") Hydration hydration,
+            @ConfigProperty(name = "search.hybrid.enabled", defaultValue = "true") boolean hybrid,
+            @ConfigProperty(name = "search.hybrid.rrf-k", defaultValue = "60") int rrfK,
+            @ConfigProperty(name = "search.segment-overfetch", defaultValue = "3") int segmentOverfetch,
+            @ConfigProperty(name = "search.pagination.max-results", defaultValue = "100") int maxRankedResults,
+            @ConfigProperty(name = "search.pagination.max-page-size", defaultValue = "50") int maxPageSize,
+            @ConfigProperty(name = "search.batch.concurrency", defaultValue = "8") int batchConcurrency,
+            @ConfigProperty(name = "search.batch.max-queries", defaultValue = "500") int batchMaxQueries,
+            @ConfigProperty(name = "chat.stream.token-timeout", defaultValue = "PT30S") Duration streamTokenTimeout
+    ) {
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.virtualThreads = virtualThreads;
+        this.enrichment = enrichment;
+        this.bot = bot;
+        this.jsonTextProcessor = jsonTextProcessor;
+        this.limiter = limiter;
+        this.answerCache = answerCache;
+        this.lexicalIndex = lexicalIndex;
+        this.memories = memories;
+        this.metrics = metrics;
+        this.filterExtractor = filterExtractor;
+        this.resultCache = resultCache;
+        this.hydration = hydration;
+        this.hybrid = hybrid;
+        this.rrfK = rrfK;
+        this.segmentOverfetch = segmentOverfetch;
+        this.maxRankedResults = maxRankedResults;
+        this.maxPageSize = maxPageSize;
+        this.batchConcurrency = batchConcurrency;
+        this.batchMaxQueries = batchMaxQueries;
+        this.streamTokenTimeout = streamTokenTimeout;
+    }
 
-    @Inject
-    JsonTextProcessor jsonTextProcessor;
+    void onStart(@Observes StartupEvent event,
+                 @ConfigProperty(name = "search.vector-store", defaultValue = "pgvector") String vectorStore,
+                 @ConfigProperty(name = "search.vector-quantization", defaultValue = "none") Quantization quantization) {
+        Log.info("Search results are hydrated from " + hydration);
+        if (quantization != Quantization.NONE && "pgvector".equals(vectorStore)) {
+            Log.warn("search.vector-quantization=%s only applies to the in-process HNSW index, pgvector keeps float vectors"
+                    .formatted(quantization.name().toLowerCase()));
+        }
+    }
 
     public List<Property> find(String search) {
-        Embedding embedding = embeddingModel.embed(search).content();
+        return find(search, SearchFilter.NONE);
+    }
+
+    /**
+     * Finds properties similar to the query within the region and type of the filter.
+     * Fields missing from the filter are extracted from the query; when only extracted fields restrict the search
+     * and nothing matches, the search is repeated without them.
+     *
+     * @param search Free text query
+     * @param filter Explicit restrictions, e.g. GraphQL arguments
+     */
+    public List<Property> find(String search, SearchFilter filter) {
+        SearchMetrics.Trace trace = new SearchMetrics.Trace("find");
+        List<Hit> hits = rank(search, filter, 0.8, 5, trace);
+        List<Property> properties = metrics.time(trace, Stage.HYDRATION, () -> hydrate(hits, hydration));
+        metrics.results("find", properties.size());
+
+        Log.debugf("Search found %d properties with %s hydration, %s", properties.size(), hydration, trace);
+        return properties;
+    }
+
+    /**
+     * Searches several queries at once, e.g. for catalogue pages and SEO jobs.
+     * All queries missing from the embedding cache are embedded with one embedAll request, the vector searches run
+     * concurrently with at most batch concurrency at a time and the properties of all queries are hydrated together.
+     *
+     * @param searches Free text queries
+     * @return Properties of every query, in the order of the queries
+     * @throws IllegalArgumentException if there are more than batch max-queries queries
+     */
+    public List<List<Property>> findMany(List<String> searches) {
+        if (searches.isEmpty()) {
+            return List.of();
+        }
+        if (searches.size() > batchMaxQueries) {
+            throw new IllegalArgumentException("At most %s queries per batch, got %s".formatted(batchMaxQueries, searches.size()));
+        }
+        long started = System.nanoTime();
+        SearchMetrics.Trace trace = new SearchMetrics.Trace("findMany");
+        List<Embedding> embeddings = metrics.time(trace, Stage.EMBEDDING, () -> embeddingModel.embedQueries(searches));
+
+        Semaphore permits = new Semaphore(batchConcurrency);
+        List<Future<List<Hit>>> rankings = new ArrayList<>(searches.size());
+        for (int i = 0; i < searches.size(); i++) {
+            String search = searches.get(i);
+            Embedding embedding = embeddings.get(i);
+            rankings.add(virtualThreads.submit(() -> {
+                permits.acquire();
+                try {
+                    return rank(search, embedding, SearchFilter.NONE, 0.8, 5, trace);
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+
+        List<List<Hit>> hits = new ArrayList<>(rankings.size());
+        for (Future<List<Hit>> ranking : rankings) {
+            try {
+                hits.add(ranking.get());
+            } catch (ExecutionException e) {
+                rankings.forEach(other -> other.cancel(true));
+                throw e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                rankings.forEach(other -> other.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while searching", e);
+            }
+        }
+
+        // One hydration for the hits of all queries, a property found by several queries is loaded once
+        Map<String, Hit> distinct = new LinkedHashMap<>();
+        hits.forEach(queryHits -> queryHits.forEach(hit -> distinct.merge(hit.id(), hit,
+                (first, second) -> first.metadata() != null ? first : second)));
+        Map<String, Property> properties = new HashMap<>();
+        metrics.time(trace, Stage.HYDRATION, () -> hydrate(List.copyOf(distinct.values()), hydration))
+                .forEach(property -> properties.put(property.getId(), property));
+
+        List<List<Property>> results = hits.stream()
+                .map(queryHits -> queryHits.stream()
+                        .map(hit -> properties.get(hit.id()))
+                        .filter(Objects::nonNull)
+                        .toList())
+                .toList();
+        results.forEach(found -> metrics.results("findMany", found.size()));
+
+        long elapsed = System.nanoTime() - started;
+        metrics.throughput("findMany", searches.size(), elapsed);
+        Log.infof("Batch search of %d queries took %d ms, %.1f queries/s, %s",
+                searches.size(), elapsed / 1_000_000, searches.size() * 1e9 / Math.max(elapsed, 1), trace);
+        return results;
+    }
+
+    /**
+     * Pages through the properties similar to the query.
+     * The ranking of up to max-results hits is computed once and kept in the {@link SearchResultCache},
+     * following pages of the same query and threshold are sliced from it without embedding or searching again.
+     *
+     * @param search   Free text query
+     * @param first    Page size, capped at max-page-size
+     * @param after    Cursor of the last edge of the previous page, null for the first page
+     * @param minScore Minimum cosine similarity of vector hits
+     * @param fields   Fields filled in on the nodes, the database is only queried for the description
+     * @throws IllegalArgumentException if the cursor was not issued by this method
+     */
+    public PropertyConnectionDto page(String search, int first, String after, double minScore, Set<PropertyField> fields) {
+        SearchMetrics.Trace trace = new SearchMetrics.Trace("page");
+        int offset = after == null ? 0 : position(after) + 1;
+        List<Hit> hits = resultCache.get(search, minScore,
+                () -> rank(search, SearchFilter.NONE, minScore, maxRankedResults, trace));
+
+        int from = Math.min(offset, hits.size());
+        List<Hit> page = hits.subList(from, Math.min(from + Math.max(0, Math.min(first, maxPageSize)), hits.size()));
+        Hydration pageHydration = fields.contains(PropertyField.DESCRIPTION) ? Hydration.DATABASE : Hydration.METADATA;
+        Map<String, Property> properties = new HashMap<>();
+        metrics.time(trace, Stage.HYDRATION, () -> hydrate(page, pageHydration))
+                .forEach(property -> properties.put(property.getId(), property));
+
+        List<PropertyEdgeDto> edges = new ArrayList<>();
+        for (int i = 0; i < page.size(); i++) {
+            Hit hit = page.get(i);
+            Property property = properties.get(hit.id());
+            if (property != null) {
+                edges.add(new PropertyEdgeDto(cursor(from + i), hit.score(), project(property, fields)));
+            }
+        }
+        metrics.results("page", edges.size());
+
+        PageInfoDto pageInfo = new PageInfoDto(
+                edges.isEmpty() ? null : edges.getFirst().getCursor(),
+                edges.isEmpty() ? null : edges.getLast().getCursor(),
+                from > 0,
+                from + page.size() < hits.size());
+        Log.debugf("Search page at %d returned %d of %d properties, %s", from, edges.size(), hits.size(), trace);
+        return new PropertyConnectionDto(edges, pageInfo, hits.size());
+    }
+
+    /**
+     * Ranks properties by vector similarity, fused with BM25 when hybrid search is enabled.
+     * Fields missing from the filter are extracted from the query; when only extracted fields restrict the search
+     * and nothing matches, the search is repeated without them.
+     */
+    private List<Hit> rank(String search, SearchFilter filter, double minScore, int maxResults, SearchMetrics.Trace trace) {
+        Embedding embedding = metrics.time(trace, Stage.EMBEDDING, () -> embeddingModel.embed(search).content());
+        return rank(search, embedding, filter, minScore, maxResults, trace);
+    }
+
+    private List<Hit> rank(String search, Embedding embedding, SearchFilter filter, double minScore, int maxResults,
+                           SearchMetrics.Trace trace) {
+        SearchFilter effective = filter.orElse(filterExtractor.extract(search));
+        List<Hit> hits = rankWithin(search, embedding, effective, minScore, maxResults, trace);
+        if (hits.isEmpty() && !effective.equals(filter)) {
+            Log.debugf("Nothing matches %s, searching with %s", effective, filter);
+            hits = rankWithin(search, embedding, filter, minScore, maxResults, trace);
+        }
+        return hits;
+    }
+
+    private List<Hit> rankWithin(String search, Embedding embedding, SearchFilter filter, double minScore, int maxResults,
+                                 SearchMetrics.Trace trace) {
         EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
                 .queryEmbedding(embedding)
-                .minScore(0.8)
-                .maxResults(5)
+                .minScore(minScore)
+                .maxResults(maxResults * segmentOverfetch)
+                .filter(filter.toFilter())
+                .build();
+
+        // A property can match with several chunks, matches are ordered by score so its first one is the best
+        List<EmbeddingMatch<TextSegment>> matches = metrics.time(trace, Stage.VECTOR_SEARCH,
+                () -> limiter.call(Downstream.DATABASE, () -> embeddingStore.search(request).matches()));
+        metrics.matches(trace.operation(), matches);
+        Map<String, Hit> vectorHits = new LinkedHashMap<>();
+        for (EmbeddingMatch<TextSegment> match : matches) {
+            Metadata metadata = match.embedded().metadata();
+            String id = metadata.getString("id");
+            if (vectorHits.size() == maxResults && !vectorHits.containsKey(id)) {
+                break;
+            }
+            vectorHits.putIfAbsent(id, new Hit(id, match.score(), metadata));
+        }
+
+        List<String> ids = List.copyOf(vectorHits.keySet());
+        if (hybrid) {
+            List<String> lexical = metrics.time(trace, Stage.LEXICAL_SEARCH, () -> lexicalIndex.search(search, maxResults, filter));
+            ids = RankFusion.fuse(rrfK, ids, lexical).stream()
+                    .limit(maxResults)
+                    .toList();
+        }
+
+        return ids.stream()
+                .map(id -> vectorHits.getOrDefault(id, new Hit(id, null, null)))
+                .toList();
+    }
+
+    private List<Property> hydrate(List<Hit> hits, Hydration hydration) {
+        List<String> ids = hits.stream().map(Hit::id).toList();
+        if (hydration == Hydration.DATABASE) {
+            return limiter.call(Downstream.DATABASE, () -> load(ids));
+        }
+
+        Map<String, Property> byId = new HashMap<>();
+        for (Hit hit : hits) {
+            if (hit.metadata() != null) {
+                byId.put(hit.id(), fromMetadata(hit.metadata()));
+            }
+        }
+
+        // Lexical hits have no segment metadata at hand, they are loaded with one query
+        List<String> missing = ids.stream().filter(id -> !byId.containsKey(id)).toList();
+        if (!missing.isEmpty()) {
+            limiter.call(Downstream.DATABASE, () -> load(missing))
+                    .forEach(property -> byId.put(property.getId(), property));
+        }
+
+        return ids.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Loads properties with one query in the order of the ids, the search benchmark loads them without Hibernate
+     */
+    List<Property> load(List<String> ids) {
+        return Property.findByIdsOrdered(ids);
+    }
+
+    /**
+     * Copy of the property with only the requested fields, leaves loaded entities untouched
+     */
+    private static Property project(Property property, Set<PropertyField> fields) {
+        return Property.builder()
+                .id(fields.contains(PropertyField.ID) ? property.getId() : null)
+                .title(fields.contains(PropertyField.TITLE) ? property.getTitle() : null)
+                .description(fields.contains(PropertyField.DESCRIPTION) ? property.getDescription() : null)
+                .singleLine(fields.contains(PropertyField.SINGLE_LINE) ? property.getSingleLine() : null)
                 .build();
+    }
 
-        return embeddingStore.search(request).matches().stream().map(m -> {
-            String id = m.embedded().metadata().getString("id");
-            return (Property) Property.findById(id);
-        }).toList();
+    private static String cursor(int position) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((CURSOR_PREFIX + position).getBytes(StandardCharsets.UTF_8));
     }
 
-    public SearchResponseDto chat(String message) {
-        String res = bot.chat(message);
-        List<UUID> ids = findUuidsInString(res);
+    private static int position(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!decoded.startsWith(CURSOR_PREFIX)) {
+                throw new IllegalArgumentException("Unknown cursor format");
+            }
+            int position = Integer.parseInt(decoded.substring(CURSOR_PREFIX.length()));
+            if (position < 0) {
+                throw new IllegalArgumentException("Negative position " + position);
+            }
+            return position;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+        }
+    }
+
+    private static Property fromMetadata(Metadata metadata) {
+        return Property.builder()
+                .id(metadata.getString("id"))
+                .title(metadata.getString("title"))
+                .singleLine(metadata.getString("singleLine"))
+                .build();
+    }
+
+    /**
+     * @param conversationId Id of the conversation memory, the WebSocket connection id
+     * @param message        Question of the user
+     */
+    public SearchResponseDto chat(String conversationId, String message) {
+        SearchMetrics.Trace trace = new SearchMetrics.Trace("chat");
+        // Answers to follow-up questions depend on the earlier turns, only first questions are shared between users
+        boolean firstTurn = !memories.hasHistory(conversationId);
+        Optional<String> cachedAnswer = firstTurn
+                ? metrics.time(trace, Stage.ANSWER_CACHE, () -> answerCache.find(message))
+                : Optional.empty();
+        String res = cachedAnswer
+                .map(cached -> {
+                    memories.record(conversationId, message, cached);
+                    return cached;
+                })
+                .orElseGet(() -> {
+                    try {
+                        // Includes the retrieval of the augmentor, which records its own stages
+                        String answer = metrics.time(trace, Stage.LLM,
+                                () -> limiter.call(Downstream.LLM, () -> bot.chat(conversationId, message)));
+                        if (firstTurn) {
+                            answerCache.put(message, answer);
+                        }
+                        return answer;
+                    } catch (RuntimeException e) {
+                        // Timeouts and open circuits as well as transport and model errors of the LLM
+                        Log.warnf("Bot unavailable, answering with keyword matches: %s", e.toString());
+                        metrics.count("chat.degraded", "llm", 1);
+                        String answer = degradedAnswer(message);
+                        memories.record(conversationId, message, answer);
+                        return answer;
+                    }
+                });
 //        Boolean isProcessed = false;
 //        Integer tries = 0;
 //
@@ -77,16 +457,159 @@ public class SearchService {
 //        }
 
 
+        SearchResponseDto response = metrics.time(trace, Stage.ENRICHMENT, () -> enrich(res));
+        Log.debugf("Chat answered, %s", trace);
+        return response;
+    }
+
+    /**
+     * Resolves the property ids of a bot answer against the broker and replaces their placeholders with serial ids
+     */
+    private SearchResponseDto enrich(String res) {
+        List<String> ids = PropertyIdScanner.findIds(res);
+
         if (!ids.isEmpty()) {
-            List<BrokerPropertyDto> properties = graphQLApi.properties(new PropertyFilterDto(ids.stream().map(UUID::toString).toList()));
+            List<BrokerPropertyDto> properties;
+            try {
+                properties = enrichment.properties(ids);
+            } catch (RuntimeException e) {
+                Log.warnf("Broker unavailable, answering with cached properties: %s", e.toString());
+                metrics.count("chat.degraded", "broker", 1);
+                properties = enrichment.cached(ids);
+            }
+
+            return new SearchResponseDto(PropertyIdScanner.replacePlaceholders(res, serialIds(properties)), properties, null, false);
+        }
 
-            for (BrokerPropertyDto property : properties) {
-                res = res.replace("{\"id\": \"%s\"}".formatted(property.getId()), property.getSerialId());
+        return new SearchResponseDto(res, null, null, false);
+    }
+
+    /**
+     * Answer without the LLM, used while it is unavailable. Lists the best keyword matches with id placeholders,
+     * so they are enriched like a bot answer, and doesn't need the embedding server either.
+     */
+    private String degradedAnswer(String message) {
+        List<String> ids = lexicalIndex.search(message, 5);
+        List<Property> properties = ids.isEmpty() ? List.of()
+                : limiter.call(Downstream.DATABASE, () -> load(ids));
+        if (properties.isEmpty()) {
+            return DEGRADED_NO_MATCHES;
+        }
+
+        StringBuilder answer = new StringBuilder(DEGRADED_MATCHES);
+        for (Property property : properties) {
+            answer.append("\n- ").append(property.getTitle())
+                    .append(" {\"id\": \"").append(property.getId()).append("\"}");
+        }
+        return answer.toString();
+    }
+
+    private static Map<String, String> serialIds(List<BrokerPropertyDto> properties) {
+        Map<String, String> serialIds = new HashMap<>();
+        for (BrokerPropertyDto property : properties) {
+            if (property.getSerialId() != null) {
+                serialIds.put(property.getId(), property.getSerialId());
             }
+        }
+        return serialIds;
+    }
 
-            return new SearchResponseDto(res, properties, null);
+    /**
+     * Streams the bot answer as partial frames. Each complete {"id": "..."} placeholder starts its enrichment
+     * right away, the last frame carries the whole message with resolved serial ids and the properties.
+     *
+     * @param conversationId Id of the conversation memory, the WebSocket connection id
+     * @param message        Question of the user
+     * @param messageId      Id shared by all frames of this answer
+     * @return Partial frames followed by one final frame
+     */
+    public Multi<SearchResponseDto> chatStream(String conversationId, String message, String messageId) {
+        // Answers to follow-up questions depend on the earlier turns, only first questions are shared between users
+        boolean firstTurn = !memories.hasHistory(conversationId);
+        Optional<String> cached = firstTurn ? answerCache.find(message) : Optional.empty();
+        if (cached.isPresent()) {
+            memories.record(conversationId, message, cached.get());
+            SearchResponseDto response = enrich(cached.get());
+            response.setMessageId(messageId);
+            return Multi.createFrom().item(response);
         }
 
-        return new SearchResponseDto(res, null, null);
+        StreamedAnswer answer = new StreamedAnswer();
+        long started = System.nanoTime();
+        AtomicBoolean first = new AtomicBoolean(true);
+
+        Multi<SearchResponseDto> tokens = bot.chatStream(conversationId, message)
+                .ifNoItem().after(streamTokenTimeout)
+                .failWith(() -> new TimeoutException("No token within " + streamTokenTimeout))
+                .onItem().transform(token -> {
+                    if (first.getAndSet(false)) {
+                        metrics.record(null, Stage.FIRST_TOKEN, System.nanoTime() - started);
+                    }
+                    answer.append(token);
+                    return new SearchResponseDto(token, null, messageId, true);
+                })
+                .onCompletion().invoke(() -> {
+                    metrics.record(null, Stage.LLM, System.nanoTime() - started);
+                    if (firstTurn) {
+                        answerCache.put(message, answer.scanner.text());
+                    }
+                })
+                // Failed answers are not cached, the keyword matches are appended to what was streamed so far
+                .onFailure().recoverWithMulti(e -> Uni.createFrom().item(() -> {
+                    Log.warnf("Bot stream failed, answering with keyword matches: %s", e.toString());
+                    metrics.count("chat.degraded", "llm", 1);
+                    String degraded = (answer.scanner.text().isEmpty() ? "" : "\n\n") + degradedAnswer(message);
+                    answer.append(degraded);
+                    return new SearchResponseDto(degraded, null, messageId, true);
+                }).runSubscriptionOn(virtualThreads).toMulti());
+
+        Uni<SearchResponseDto> last = Uni.createFrom().completionStage(answer::complete)
+                .onItem().transform(properties -> new SearchResponseDto(
+                        PropertyIdScanner.replacePlaceholders(answer.scanner.text(), serialIds(properties)),
+                        properties.isEmpty() ? null : properties,
+                        messageId,
+                        false));
+
+        return Multi.createBy().concatenating().streams(tokens, last.toMulti());
+    }
+
+    /**
+     * Collects streamed tokens and fetches the properties of each id once it is complete
+     */
+    private class StreamedAnswer {
+        private final PropertyIdScanner scanner = new PropertyIdScanner();
+        private final List<CompletableFuture<List<BrokerPropertyDto>>> lookups = new ArrayList<>();
+
+        void append(String token) {
+            lookup(scanner.feed(token));
+        }
+
+        CompletableFuture<List<BrokerPropertyDto>> complete() {
+            // An id still open at the end, e.g. in a placeholder the model didn't close, is looked up like chat does
+            lookup(scanner.finish());
+            return CompletableFuture.allOf(lookups.toArray(CompletableFuture[]::new))
+                    .thenApply(ignored -> lookups.stream()
+                            .flatMap(lookup -> lookup.join().stream())
+                            .toList());
+        }
+
+        private void lookup(List<String> ids) {
+            if (!ids.isEmpty()) {
+                lookups.add(enrichment.propertiesAsync(ids)
+                        .exceptionally(e -> {
+                            Log.warn("Failed to load properties " + ids + ", using cached ones", e);
+                            return enrichment.cached(ids);
+                        }));
+            }
+        }
+    }
+
+    /**
+     * Ranked property of a search
+     *
+     * @param score    Similarity of the best matching chunk, null for lexical only hits
+     * @param metadata Metadata of the best matching chunk, null for lexical only hits
+     */
+    record Hit(String id, Double score, Metadata metadata) {
     }
 }
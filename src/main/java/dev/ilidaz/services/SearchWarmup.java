@@ -0,0 +1,138 @@
+package dev.ilidaz.services;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.control.ActivateRequestContext;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.HealthCheckResponseBuilder;
+import org.eclipse.microprofile.health.Readiness;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Warms the embedding model, the indexes and the JIT compiled search path in the background after startup.
+ * Warmup queries are searched in rounds until stable-rounds consecutive rounds take within tolerance of the
+ * previous one, or max-rounds were run. The instance reports ready only afterwards, together with the
+ * {@link StartupTimings} of every phase. While warmup searches fail, e.g. because the database or the embedding
+ * server is not up yet, it stays not ready and warms up again after retry-delay.
+ */
+@Readiness
+@ApplicationScoped
+public class SearchWarmup implements HealthCheck {
+
+    @Inject
+    SearchService searchService;
+
+    @Inject
+    LexicalIndex lexicalIndex;
+
+    @Inject
+    StartupTimings timings;
+
+    private final boolean enabled;
+    private final List<String> queries;
+    private final int maxRounds;
+    private final int stableRounds;
+    private final double tolerance;
+    private final Duration retryDelay;
+
+    private volatile boolean ready;
+
+    SearchWarmup(
+            @ConfigProperty(name = "startup.warmup.enabled", defaultValue = "true") boolean enabled,
+            @ConfigProperty(name = "startup.warmup.queries", defaultValue = "2 bedroom apartment with balcony,house with garden") List<String> queries,
+            @ConfigProperty(name = "startup.warmup.max-rounds", defaultValue = "30") int maxRounds,
+            @ConfigProperty(name = "startup.warmup.stable-rounds", defaultValue = "3") int stableRounds,
+            @ConfigProperty(name = "startup.warmup.tolerance", defaultValue = "0.1") double tolerance,
+            @ConfigProperty(name = "startup.warmup.retry-delay", defaultValue = "PT10S") Duration retryDelay
+    ) {
+        this.enabled = enabled;
+        this.queries = queries;
+        this.maxRounds = maxRounds;
+        this.stableRounds = stableRounds;
+        this.tolerance = tolerance;
+        this.retryDelay = retryDelay;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        long started = System.nanoTime();
+        Thread.ofVirtual().start(() -> {
+            try {
+                lexicalIndex.loaded().join();
+            } catch (Exception e) {
+                // Logged by the index, search still works on vectors alone
+            }
+            if (enabled) {
+                while (!warmUp()) {
+                    try {
+                        Thread.sleep(retryDelay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            ready = true;
+            timings.record("ready", System.nanoTime() - started);
+        });
+    }
+
+    /**
+     * Runs the warmup rounds. Called through the bean, so searches have the request context Panache needs.
+     *
+     * @return Whether every query of the last round succeeded
+     */
+    @ActivateRequestContext
+    boolean warmUp() {
+        long started = System.nanoTime();
+        long previous = -1;
+        int stable = 0;
+        int round = 0;
+        int failed = 0;
+        while (round < maxRounds && stable < stableRounds) {
+            long roundStarted = System.nanoTime();
+            failed = 0;
+            for (String query : queries) {
+                try {
+                    searchService.find(query);
+                } catch (Exception e) {
+                    failed++;
+                    Log.debugf("Warmup query failed: %s", e.getMessage());
+                }
+            }
+            if (failed == queries.size()) {
+                break;
+            }
+            long duration = System.nanoTime() - roundStarted;
+            stable = previous > 0 && Math.abs(duration - previous) <= previous * tolerance ? stable + 1 : 0;
+            previous = duration;
+            round++;
+        }
+
+        if (failed > 0) {
+            Log.warn("Warmup failed, %s of %s queries failed, retrying in %s"
+                    .formatted(failed, queries.size(), retryDelay));
+            return false;
+        }
+        timings.record("warmup", System.nanoTime() - started);
+        if (stable < stableRounds) {
+            Log.warn("Warmup stopped after %s rounds without steady latency".formatted(round));
+        } else {
+            Log.info("Warmup reached steady search latency of %s µs per round after %s rounds"
+                    .formatted(previous / 1000, round));
+        }
+        return true;
+    }
+
+    @Override
+    public HealthCheckResponse call() {
+        HealthCheckResponseBuilder response = HealthCheckResponse.named("search-warmup").status(ready);
+        timings.millis().forEach((phase, millis) -> response.withData(phase + ".ms", millis));
+        return response.build();
+    }
+}
@@ -0,0 +1,122 @@
+package dev.ilidaz.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reuses bot answers for questions close to an earlier one.
+ * Questions are compared by the cosine similarity of their embeddings, which come from the {@link Cached}
+ * model and are reused by the retrieval of a missed question.
+ * Answers are stored with their id placeholders, so properties are resolved against current broker data on every hit.
+ * The cache is shared by all conversations, so {@link SearchService} only uses it for the first question of one.
+ */
+@ApplicationScoped
+public class SemanticAnswerCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final boolean enabled;
+    private final double similarity;
+    private final Cache<String, CachedAnswer> answers;
+    private final Counter hits;
+    private final Counter misses;
+
+    SemanticAnswerCache(
+            @Cached EmbeddingModel embeddingModel,
+            @ConfigProperty(name = "chat.answer-cache.enabled", defaultValue = "true") boolean enabled,
+            @ConfigProperty(name = "chat.answer-cache.similarity", defaultValue = "0.95") double similarity,
+            @ConfigProperty(name = "chat.answer-cache.maximum-size", defaultValue = "1000") long maximumSize,
+            @ConfigProperty(name = "chat.answer-cache.expire-after-write", defaultValue = "PT1H") Duration expireAfterWrite,
+            MeterRegistry registry
+    ) {
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.similarity = similarity;
+        answers = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .build();
+        hits = registry.counter("chat.answer.cache", "result", "hit");
+        misses = registry.counter("chat.answer.cache", "result", "miss");
+    }
+
+    /**
+     * Finds the answer of the most similar earlier question
+     *
+     * @param question Question of the user
+     * @return Stored answer, if a question above the similarity threshold was answered before
+     */
+    public Optional<String> find(String question) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        float[] vector;
+        try {
+            vector = embed(question);
+        } catch (RuntimeException e) {
+            // The embedding server is unavailable or failed, the bot path degrades on its own
+            misses.increment();
+            return Optional.empty();
+        }
+        CachedAnswer best = null;
+        double bestSimilarity = similarity;
+        for (CachedAnswer answer : answers.asMap().values()) {
+            double candidate = dot(vector, answer.vector());
+            if (candidate >= bestSimilarity) {
+                best = answer;
+                bestSimilarity = candidate;
+            }
+        }
+
+        (best == null ? misses : hits).increment();
+        return Optional.ofNullable(best).map(CachedAnswer::answer);
+    }
+
+    public void put(String question, String answer) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            answers.put(CachedEmbeddingModel.normalize(question),
+                    new CachedAnswer(embed(question), answer, PropertyIdScanner.findIds(answer)));
+        } catch (RuntimeException e) {
+            Log.debugf("Answer not cached, embedding unavailable: %s", e.getMessage());
+        }
+    }
+
+    void onPropertiesChanged(@Observes PropertiesChanged event) {
+        answers.asMap().values().removeIf(answer -> answer.ids().stream().anyMatch(event.ids()::contains));
+    }
+
+    private float[] embed(String question) {
+        float[] vector = embeddingModel.embed(question).content().vector();
+        double norm = Math.sqrt(dot(vector, vector));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = norm == 0 ? 0 : (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    private record CachedAnswer(float[] vector, String answer, List<String> ids) {
+    }
+}
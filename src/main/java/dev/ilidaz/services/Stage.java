@@ -0,0 +1,34 @@
+package dev.ilidaz.services;
+
+/**
+ * Stages of search, chat and import requests timed by {@link SearchMetrics}
+ */
+public enum Stage {
+    EMBEDDING,
+    VECTOR_SEARCH,
+    LEXICAL_SEARCH,
+    /**
+     * Embedding and vector search of the chat retrieval augmentor
+     */
+    RETRIEVAL,
+    RERANK,
+    COMPRESSION,
+    HYDRATION,
+    ANSWER_CACHE,
+    LLM,
+    /**
+     * Time until the first streamed token of an answer
+     */
+    FIRST_TOKEN,
+    ENRICHMENT,
+    /**
+     * Batched {@link dev.ilidaz.clients.GraphQLApi#properties} call of the enrichment
+     */
+    BROKER,
+    IMPORT_SAVE,
+    IMPORT_EMBED;
+
+    public String tag() {
+        return name().toLowerCase();
+    }
+}
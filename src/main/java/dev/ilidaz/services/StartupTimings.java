@@ -0,0 +1,46 @@
+package dev.ilidaz.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Durations of the startup phases after the application started, e.g. restoring snapshots and warming up.
+ * Every phase is logged, exported as a {@code startup.phase} timer and reported by the readiness check.
+ */
+@ApplicationScoped
+public class StartupTimings {
+
+    private final MeterRegistry registry;
+    private final Map<String, Long> millis = new LinkedHashMap<>();
+
+    StartupTimings(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void record(String phase, long nanos) {
+        Timer.builder("startup.phase")
+                .description("Duration of a startup phase")
+                .tag("phase", phase)
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+        synchronized (millis) {
+            millis.put(phase, nanos / 1_000_000);
+        }
+        Log.info("Startup phase %s took %s ms".formatted(phase, nanos / 1_000_000));
+    }
+
+    /**
+     * @return Milliseconds of every finished phase, in the order they finished
+     */
+    public Map<String, Long> millis() {
+        synchronized (millis) {
+            return new LinkedHashMap<>(millis);
+        }
+    }
+}
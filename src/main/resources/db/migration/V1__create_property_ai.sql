@@ -0,0 +1,9 @@
+-- Table of the imported listings as it existed before migrations were introduced.
+-- Existing databases are baselined at version 0, so this only creates the table when it is missing.
+CREATE TABLE IF NOT EXISTS property_ai
+(
+    id          varchar(255) PRIMARY KEY,
+    title       text,
+    description text,
+    single_line text
+);
@@ -0,0 +1,9 @@
+-- Incremental sync: SHA-256 of the embedded content, the hash of saved content whose segments are not stored yet
+-- and the start time of the last sync run which saw the row
+ALTER TABLE property_ai
+    ADD COLUMN IF NOT EXISTS content_hash varchar(64),
+    ADD COLUMN IF NOT EXISTS pending_hash varchar(64),
+    ADD COLUMN IF NOT EXISTS sync_run     bigint;
+
+-- Rows not seen by a run are looked up after every sync
+CREATE INDEX IF NOT EXISTS property_ai_sync_run_idx ON property_ai (sync_run);
@@ -15,6 +15,31 @@ function ChatBot({ onPropertyResults }) {
     // Initialize WebSocket with manual control over connection
     const { sendMessage, lastMessage, readyState, getWebSocket } = useWebSocket(wsUrl, {
         onOpen: () => console.log('WebSocket connection established'),
+        // Partial frames come faster than lastMessage renders, so they are appended here instead
+        onMessage: (event) => {
+            try {
+                const data = JSON.parse(event.data);
+                if (!data.partial) {
+                    return;
+                }
+                setMessages(prev => {
+                    const index = prev.findIndex(msg => msg.id === data.messageId);
+                    if (index === -1) {
+                        return [...prev, {
+                            id: data.messageId,
+                            text: data.message,
+                            sender: 'bot',
+                            timestamp: Date.now()
+                        }];
+                    }
+                    const updated = [...prev];
+                    updated[index] = { ...updated[index], text: updated[index].text + data.message };
+                    return updated;
+                });
+            } catch (error) {
+                console.error('Error parsing WebSocket message:', error);
+            }
+        },
         onError: (event) => console.error('WebSocket error:', event),
         shouldReconnect: (closeEvent) => true, // Auto reconnect
         reconnectAttempts: 10,
@@ -29,6 +54,11 @@ function ChatBot({ onPropertyResults }) {
             try {
                 const data = JSON.parse(lastMessage.data);
 
+                // Partial frames are appended as they arrive, see the onMessage handler of useWebSocket above
+                if (data.partial) {
+                    return;
+                }
+
                 // Generate a unique ID for this message based on its content
                 const messageId = JSON.stringify(data);
 
@@ -37,12 +67,21 @@ function ChatBot({ onPropertyResults }) {
                     // Add message to processed set
                     setProcessedMessageIds(prev => new Set(prev).add(messageId));
 
-                    // Add bot message to chat
-                    setMessages(prev => [...prev, {
-                        text: data.message,
-                        sender: 'bot',
-                        timestamp: Date.now()
-                    }]);
+                    // Add bot message to chat, the final frame of a streamed answer replaces its partial text
+                    setMessages(prev => {
+                        const index = prev.findIndex(msg => msg.id && msg.id === data.messageId);
+                        if (index === -1) {
+                            return [...prev, {
+                                id: data.messageId,
+                                text: data.message,
+                                sender: 'bot',
+                                timestamp: Date.now()
+                            }];
+                        }
+                        const updated = [...prev];
+                        updated[index] = { ...updated[index], text: data.message };
+                        return updated;
+                    });
 
                     // If properties were returned, send them to the parent component
                     if (data.properties && data.properties.length > 0) {
@@ -0,0 +1,24 @@
+package dev.ilidaz.clients;
+
+import io.smallrye.graphql.client.typesafe.api.TypesafeGraphQLClientBuilder;
+
+/**
+ * Builds the {@link BrokerClient} outside of Quarkus, for tests against a stub of the broker GraphQL API
+ */
+public class BrokerClients {
+
+    private BrokerClients() {
+    }
+
+    /**
+     * @param endpoint URL of the GraphQL endpoint, e.g. {@code http://localhost:41234/graphql}
+     * @return Broker client sending its queries over HTTP with the typesafe client, without the fault tolerance
+     */
+    public static BrokerClient over(String endpoint) {
+        BrokerClient client = new BrokerClient();
+        client.graphQLApi = TypesafeGraphQLClientBuilder.newBuilder()
+                .endpoint(endpoint)
+                .build(GraphQLApi.class);
+        return client;
+    }
+}
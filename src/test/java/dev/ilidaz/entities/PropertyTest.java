@@ -0,0 +1,50 @@
+package dev.ilidaz.entities;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PropertyTest {
+
+    @Test
+    void hashesOnlyTheEmbeddedColumns() {
+        Property property = property("2 bedroom flat", "Bright flat with a balcony.", "1 High Street, Camden");
+        String hash = property.computeContentHash();
+
+        assertTrue(hash.matches("[0-9a-f]{64}"));
+        assertEquals(hash, property("2 bedroom flat", "Bright flat with a balcony.", "1 High Street, Camden").computeContentHash());
+
+        // The hashes of the sync run don't change the content
+        property.setId("another-id");
+        property.setContentHash("stored");
+        property.setPendingHash("pending");
+        property.setSyncRun(42L);
+        assertEquals(hash, property.computeContentHash());
+    }
+
+    @Test
+    void changesWithEveryEmbeddedColumn() {
+        String hash = property("2 bedroom flat", "Bright flat with a balcony.", "1 High Street, Camden").computeContentHash();
+
+        assertNotEquals(hash, property("3 bedroom flat", "Bright flat with a balcony.", "1 High Street, Camden").computeContentHash());
+        assertNotEquals(hash, property("2 bedroom flat", "Bright flat with a garden.", "1 High Street, Camden").computeContentHash());
+        assertNotEquals(hash, property("2 bedroom flat", "Bright flat with a balcony.", "1 High Street, Hackney").computeContentHash());
+    }
+
+    @Test
+    void separatesTheColumns() {
+        // Moving text from one column to the next changes the segments, so it changes the hash
+        assertNotEquals(property("flat", "with balcony", "Camden").computeContentHash(),
+                property("flat with", "balcony", "Camden").computeContentHash());
+        assertNotEquals(property("flat", "", "Camden").computeContentHash(),
+                property("", "flat", "Camden").computeContentHash());
+        // Missing columns are embedded like empty ones
+        assertEquals(property("flat", null, null).computeContentHash(), property("flat", "", "").computeContentHash());
+    }
+
+    private static Property property(String title, String description, String singleLine) {
+        return Property.builder().id("property-1").title(title).description(description).singleLine(singleLine).build();
+    }
+}
@@ -0,0 +1,33 @@
+package dev.ilidaz.resources;
+
+import dev.ilidaz.services.DownstreamStub;
+import io.quarkus.test.common.QuarkusTestResourceLifecycleManager;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Points the embedding model, the chat model and the broker client of the application at a {@link DownstreamStub}.
+ * The latency of the stub is taken from the load-test.latency-millis system property, 50 ms by default.
+ */
+public class StubbedDownstreams implements QuarkusTestResourceLifecycleManager {
+
+    private DownstreamStub stub;
+
+    @Override
+    public Map<String, String> start() {
+        stub = new DownstreamStub(1024, Duration.ofMillis(Long.getLong("load-test.latency-millis", 50)));
+        return Map.of(
+                "quarkus.langchain4j.ollama.base-url", stub.url(),
+                "quarkus.langchain4j.openai.base-url", stub.url() + "/v1/",
+                "quarkus.langchain4j.openai.api-key", "stub",
+                "quarkus.smallrye-graphql-client.graphql-api.url", stub.url() + "/graphql");
+    }
+
+    @Override
+    public void stop() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+}
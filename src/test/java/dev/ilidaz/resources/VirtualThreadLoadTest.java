@@ -0,0 +1,202 @@
+package dev.ilidaz.resources;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.quarkus.logging.Log;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bursts of concurrent requests against the GraphQL search queries and the /chatbot websocket,
+ * which run on virtual threads, while the embedding server, the LLM and the broker are a {@link StubbedDownstreams}
+ * stub answering after load-test.latency-millis. The database is a Dev Services PostgreSQL with pgvector.
+ * Run with {@code ./mvnw test -Dtest=VirtualThreadLoadTest -Dload-test=true}, optionally with
+ * {@code -Dload-test.requests} and {@code -Dload-test.latency-millis}; the throughput is logged.
+ * A worker pool of 200 threads needs at least requests / 200 round trips of the downstream latency per burst.
+ */
+@QuarkusTest
+@WithTestResource(StubbedDownstreams.class)
+@EnabledIfSystemProperty(named = "load-test", matches = "true")
+class VirtualThreadLoadTest {
+
+    private static final int LISTINGS = 200;
+    private static final int REQUESTS = Integer.getInteger("load-test.requests", 500);
+    private static final String[] TYPES = {"flat", "house", "studio", "villa"};
+    private static final String[] REGIONS = {"Camden", "Hackney", "Islington", "Greenwich"};
+    private static final String[] FEATURES = {"balcony", "private garden", "roof terrace", "underground parking"};
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    private static boolean imported;
+
+    @TestHTTPResource("/graphql")
+    URI graphql;
+
+    @TestHTTPResource("/chatbot")
+    URI chatbot;
+
+    @BeforeEach
+    void importListings() throws InterruptedException {
+        if (imported) {
+            return;
+        }
+        List<Map<String, String>> listings = new ArrayList<>(LISTINGS);
+        for (int i = 0; i < LISTINGS; i++) {
+            String feature = FEATURES[i % FEATURES.length];
+            String type = TYPES[i / 4 % TYPES.length];
+            String region = REGIONS[i / 16 % REGIONS.length];
+            listings.add(Map.of(
+                    "id", UUID.nameUUIDFromBytes(("listing-" + i).getBytes(StandardCharsets.UTF_8)).toString(),
+                    "title", "%d bedroom %s with %s".formatted(1 + i % 4, type, feature),
+                    "description", "Bright %s in %s. Features include %s.".formatted(type, region, feature),
+                    "singleLine", "%d High Street, %s".formatted(1 + i, region)));
+        }
+        String job = graphql("mutation Import($data: [PropertyDtoInput]) { importProperties(data: $data) }",
+                Map.of("data", listings)).join().path("importProperties").asText();
+
+        String status = "PENDING";
+        for (int poll = 0; poll < 600 && status.equals("PENDING"); poll++) {
+            Thread.sleep(100);
+            status = graphql("query Job($id: String) { importJob(id: $id) { status } }", Map.of("id", job))
+                    .join().path("importJob").path("status").asText();
+        }
+        assertEquals("DONE", status);
+        imported = true;
+    }
+
+    @Test
+    void searchBurst() {
+        // A distinct query per request, so every one of them misses the embedding cache and waits for the stub
+        long started = System.nanoTime();
+        List<CompletableFuture<JsonNode>> responses = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            responses.add(graphql("query Search($search: String) { search(search: $search) { id title } }",
+                    Map.of("search", "%s with %s %d".formatted(TYPES[i % TYPES.length], FEATURES[i % FEATURES.length], i))));
+        }
+        int found = 0;
+        for (CompletableFuture<JsonNode> response : responses) {
+            found += response.join().path("search").size();
+        }
+        report("GraphQL searches", started);
+        assertTrue(found > 0);
+    }
+
+    @Test
+    void chatBurst() {
+        long started = System.nanoTime();
+        List<CompletableFuture<JsonNode>> answers = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            answers.add(chat("Do you have a %s with %s?".formatted(TYPES[i % TYPES.length], FEATURES[i % FEATURES.length])));
+        }
+        for (CompletableFuture<JsonNode> answer : answers) {
+            JsonNode response = answer.join();
+            assertFalse(response.path("messageId").asText().isEmpty());
+            assertFalse(response.path("message").asText().isEmpty());
+        }
+        report("websocket chats", started);
+    }
+
+    private void report(String requests, long started) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        Log.infof("%d %s in %d ms, %.0f requests/s at %d ms downstream latency", REQUESTS, requests, millis,
+                REQUESTS * 1000.0 / Math.max(millis, 1), Long.getLong("load-test.latency-millis", 50));
+    }
+
+    /**
+     * @return Data of the GraphQL response, fails on errors
+     */
+    private CompletableFuture<JsonNode> graphql(String query, Map<String, ?> variables) {
+        ObjectNode body = MAPPER.createObjectNode().put("query", query);
+        body.set("variables", MAPPER.valueToTree(variables));
+        HttpRequest request = HttpRequest.newBuilder(graphql)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        return CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            assertEquals(200, response.statusCode(), response.body());
+            JsonNode json = read(response.body());
+            assertTrue(json.path("errors").isMissingNode(), response.body());
+            return json.path("data");
+        });
+    }
+
+    /**
+     * Sends one message over a connection of its own
+     *
+     * @return Answer following the greeting
+     */
+    private CompletableFuture<JsonNode> chat(String message) {
+        CompletableFuture<JsonNode> answer = new CompletableFuture<>();
+        URI uri = URI.create(chatbot.toString().replaceFirst("^http", "ws"));
+        CLIENT.newWebSocketBuilder()
+                .connectTimeout(Duration.ofSeconds(30))
+                .buildAsync(uri, new WebSocket.Listener() {
+                    private final StringBuilder frame = new StringBuilder();
+                    private boolean greeted;
+
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        frame.append(data);
+                        webSocket.request(1);
+                        if (last) {
+                            JsonNode response = read(frame.toString());
+                            frame.setLength(0);
+                            if (!greeted) {
+                                greeted = true;
+                                webSocket.sendText(message, true);
+                            } else if (!response.path("partial").asBoolean()) {
+                                answer.complete(response);
+                                webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "");
+                            }
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public void onError(WebSocket webSocket, Throwable error) {
+                        answer.completeExceptionally(error);
+                    }
+                })
+                .exceptionally(error -> {
+                    answer.completeExceptionally(error);
+                    return null;
+                });
+        return answer.orTimeout(2, TimeUnit.MINUTES);
+    }
+
+    private static JsonNode read(String json) {
+        try {
+            return MAPPER.readTree(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CachedEmbeddingModelTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RecordingEmbeddingModel server = new RecordingEmbeddingModel();
+
+    @Test
+    void embedsTheNormalizedText() {
+        CachedEmbeddingModel first = model();
+        CachedEmbeddingModel second = model();
+
+        // Whichever spelling misses first, the cached vector is the one of the normalized text
+        float[] vector = first.embed("2 Bedroom  flat ").content().vector();
+        assertArrayEquals(vector, first.embed("2 bedroom flat").content().vector());
+        assertArrayEquals(vector, second.embed("2 BEDROOM flat").content().vector());
+        assertArrayEquals(vector, second.embed("2 Bedroom  flat ").content().vector());
+
+        assertEquals(List.of("2 bedroom flat", "2 bedroom flat"), server.texts);
+    }
+
+    @Test
+    void embedsQueriesMissingFromTheCacheOnce() {
+        CachedEmbeddingModel model = model();
+        float[] cached = model.embed("flat with balcony").content().vector();
+
+        List<Embedding> embeddings = model.embedQueries(List.of("Flat with Garden", "flat with balcony", "flat  with garden"));
+
+        assertEquals(List.of("flat with balcony", "flat with garden"), server.texts);
+        assertArrayEquals(embeddings.getFirst().vector(), embeddings.getLast().vector());
+        assertArrayEquals(cached, embeddings.get(1).vector());
+        assertArrayEquals(model().embed("flat with garden").content().vector(), embeddings.getFirst().vector());
+    }
+
+    private CachedEmbeddingModel model() {
+        return new CachedEmbeddingModel(server, new StartupTimings(registry), 100, Duration.ofHours(1),
+                Optional.empty(), registry);
+    }
+
+    /**
+     * Embedding server whose vectors depend on every character of the text, recording the texts it embeds
+     */
+    private static class RecordingEmbeddingModel implements EmbeddingModel {
+
+        final List<String> texts = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            return Response.from(textSegments.stream()
+                    .map(segment -> {
+                        texts.add(segment.text());
+                        float[] vector = new float[4];
+                        for (int i = 0; i < segment.text().length(); i++) {
+                            vector[i % vector.length] += segment.text().charAt(i);
+                        }
+                        return Embedding.from(vector);
+                    })
+                    .toList());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationMemoryTest {
+
+    // Every message is 20 chars, 5 tokens, so a budget of 12 tokens holds two messages
+    private static final int MAX_TOKENS = 12;
+
+    private final AtomicInteger summarizeCalls = new AtomicInteger();
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void shutdown() {
+        virtualThreads.shutdownNow();
+    }
+
+    @Test
+    void evictsWholeTurnsOverTheBudget() {
+        ConversationMemory memory = memory();
+        memory.add(SystemMessage.from("You are Bob."));
+        memory.add(question(1));
+        memory.add(answer(1));
+        assertEquals(0, summarizeCalls.get());
+
+        memory.add(question(2));
+
+        // The answer left alone would start the window, so the whole first turn goes
+        assertEquals(List.of(SystemMessage.from("You are Bob."), question(2)), memory.messages());
+        assertEquals(1, summarizeCalls.get());
+
+        memory.add(answer(2));
+        assertEquals(List.of(SystemMessage.from("You are Bob."), question(2), answer(2)), memory.messages());
+        assertEquals(1, summarizeCalls.get());
+    }
+
+    @Test
+    void keepsTheSummaryAfterTheSystemMessage() {
+        ConversationMemory memory = memory();
+        List<String> transcripts = new ArrayList<>();
+        memory.add(SystemMessage.from("You are Bob."));
+        turns(memory, 1, 2);
+
+        memory.summarizeEvicted(transcript -> {
+            transcripts.add(transcript);
+            return "Wants a flat.";
+        });
+        turns(memory, 3, 3);
+        memory.summarizeEvicted(transcript -> {
+            transcripts.add(transcript);
+            return "Wants a flat with a garden.";
+        });
+
+        assertEquals(List.of(
+                "Customer: question number 01\nBob: answer number 0001",
+                "Summary of the earlier conversation: Wants a flat.\nCustomer: question number 02\nBob: answer number 0002"
+        ), transcripts);
+        List<ChatMessage> messages = memory.messages();
+        assertEquals(SystemMessage.from("You are Bob."), messages.get(0));
+        assertEquals(AiMessage.from("Summary of the earlier conversation: Wants a flat with a garden."), messages.get(1));
+        assertEquals(List.of(question(3), answer(3)), messages.subList(2, messages.size()));
+    }
+
+    @Test
+    void keepsTurnsQueuedWhenSummarizingFails() {
+        ConversationMemory memory = memory();
+        turns(memory, 1, 2);
+
+        assertThrows(IllegalStateException.class, () -> memory.summarizeEvicted(transcript -> {
+            throw new IllegalStateException("HTTP 503 Service Unavailable");
+        }));
+        turns(memory, 3, 3);
+        List<String> transcripts = new ArrayList<>();
+        memory.summarizeEvicted(transcript -> {
+            transcripts.add(transcript);
+            return "Wants a flat.";
+        });
+
+        assertEquals(List.of("Customer: question number 01\nBob: answer number 0001\n"
+                + "Customer: question number 02\nBob: answer number 0002"), transcripts);
+        assertEquals(AiMessage.from("Summary of the earlier conversation: Wants a flat."), memory.messages().getFirst());
+    }
+
+    @Test
+    void dropsSummariesOfClearedTurns() {
+        ConversationMemory memory = memory();
+        turns(memory, 1, 2);
+
+        memory.summarizeEvicted(transcript -> {
+            memory.clear();
+            return "Wants a flat.";
+        });
+
+        assertTrue(memory.messages().isEmpty());
+        assertTrue(memory.isEmpty());
+    }
+
+    @Test
+    void restoresSnapshotsWithTheSummary() {
+        ConversationMemory memory = memory();
+        turns(memory, 1, 2);
+        memory.summarizeEvicted(transcript -> "Wants a flat.");
+        turns(memory, 3, 3);
+
+        // Spilled conversations are stored as the snapshot, turns still waiting for the summary included
+        ConversationMemory restored = memory();
+        restored.restore(memory.snapshot());
+
+        assertEquals(List.of(AiMessage.from("Summary of the earlier conversation: Wants a flat."),
+                question(2), answer(2), question(3), answer(3)), restored.messages());
+        assertFalse(restored.isEmpty());
+    }
+
+    @Test
+    void dropsIdleConversations() throws InterruptedException {
+        ConversationMemoryProvider provider = provider(Duration.ofMillis(100), Optional.empty());
+        provider.record("conversation-1", question(1).singleText(), answer(1).text());
+        provider.record("conversation-2", question(1).singleText(), answer(1).text());
+        assertTrue(provider.hasHistory("conversation-1"));
+
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(50);
+            provider.get("conversation-2");
+        }
+
+        assertFalse(provider.hasHistory("conversation-1"));
+        assertTrue(provider.hasHistory("conversation-2"));
+        assertTrue(provider.get("conversation-1").messages().isEmpty());
+    }
+
+    @Test
+    void summarizesEvictedTurnsInTheBackground() throws InterruptedException {
+        ConversationMemoryProvider provider = provider(Duration.ofMinutes(30), Optional.empty());
+        provider.record("conversation-1", question(1).singleText(), answer(1).text());
+        provider.record("conversation-1", question(2).singleText(), answer(2).text());
+
+        ChatMemory memory = provider.get("conversation-1");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (memory.messages().size() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of(AiMessage.from("Summary of the earlier conversation: Summary 1"), question(2), answer(2)),
+                memory.messages());
+    }
+
+    @Test
+    void forgetsClosedConversations() {
+        ConversationMemoryProvider provider = provider(Duration.ofMinutes(30), Optional.of(directory));
+        provider.record("conversation-1", question(1).singleText(), answer(1).text());
+        assertTrue(provider.hasHistory("conversation-1"));
+
+        provider.evict("conversation-1");
+
+        assertFalse(provider.hasHistory("conversation-1"));
+        assertTrue(provider.get("conversation-1").messages().isEmpty());
+        assertFalse(Files.exists(directory.resolve("conversation-1.json")));
+    }
+
+    private ConversationMemory memory() {
+        return new ConversationMemory("conversation", MAX_TOKENS, memory -> summarizeCalls.incrementAndGet());
+    }
+
+    private ConversationMemoryProvider provider(Duration idleTimeout, Optional<Path> spillDirectory) {
+        ConversationMemoryProvider provider = new ConversationMemoryProvider(MAX_TOKENS, idleTimeout, 100,
+                spillDirectory, new SimpleMeterRegistry());
+        provider.summarizer = transcript -> "Summary " + summarizeCalls.incrementAndGet();
+        provider.virtualThreads = virtualThreads;
+        provider.limiter = new DownstreamLimiter(1, 1, 1, 1, Duration.ofSeconds(1));
+        return provider;
+    }
+
+    private static void turns(ConversationMemory memory, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            memory.add(question(i));
+            memory.add(answer(i));
+        }
+    }
+
+    private static UserMessage question(int i) {
+        return UserMessage.from("question number %02d".formatted(i));
+    }
+
+    private static AiMessage answer(int i) {
+        return AiMessage.from("answer number %04d".formatted(i));
+    }
+}
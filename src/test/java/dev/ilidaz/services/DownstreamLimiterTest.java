@@ -0,0 +1,57 @@
+package dev.ilidaz.services;
+
+import org.eclipse.microprofile.faulttolerance.exceptions.BulkheadException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownstreamLimiterTest {
+
+    private final DownstreamLimiter limiter = new DownstreamLimiter(1, 1, 1, 1, Duration.ofMillis(50));
+
+    @Test
+    void rejectsCallsWaitingLongerThanAcquireTimeout() throws Exception {
+        CountDownLatch acquired = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> hung = CompletableFuture.supplyAsync(() -> limiter.call(Downstream.LLM, () -> {
+            acquired.countDown();
+            await(release);
+            return "late";
+        }));
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+
+        long started = System.nanoTime();
+        assertThrows(BulkheadException.class, () -> limiter.call(Downstream.LLM, () -> "rejected"));
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+
+        // Other downstream services have their own permits
+        assertEquals("database", limiter.call(Downstream.DATABASE, () -> "database"));
+
+        release.countDown();
+        assertEquals("late", hung.get(5, TimeUnit.SECONDS));
+        assertEquals("next", limiter.call(Downstream.LLM, () -> "next"));
+    }
+
+    @Test
+    void releasesPermitOfFailedCalls() {
+        assertThrows(IllegalStateException.class, () -> limiter.call(Downstream.BROKER, () -> {
+            throw new IllegalStateException("HTTP 503");
+        }));
+        assertEquals("next", limiter.call(Downstream.BROKER, () -> "next"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package dev.ilidaz.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * HTTP server standing in for the downstream services of the application: the embedding endpoints of Ollama,
+ * the chat completions of OpenAI and the properties query of the broker GraphQL API.
+ * Every request waits for the latency before it is answered, on a virtual thread of its own,
+ * so concurrent requests overlap like on the real servers.
+ */
+public class DownstreamStub implements AutoCloseable {
+
+    public static final String ANSWER = "Here are some properties which match your request.";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final FakeEmbeddingModel embeddings;
+    private volatile Duration latency;
+    private volatile Duration textLatency = Duration.ZERO;
+
+    final AtomicInteger embeddingRequests = new AtomicInteger();
+    final AtomicInteger chatRequests = new AtomicInteger();
+    final AtomicInteger brokerRequests = new AtomicInteger();
+    // Number of texts of every embedding request and ids of every broker request
+    final ConcurrentLinkedQueue<Integer> embeddingBatches = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<List<String>> brokerBatches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Starts the server on a free port of the loopback interface
+     *
+     * @param dimension Dimension of the embeddings, as configured for the embedding store
+     * @param latency   Time every request takes
+     */
+    public DownstreamStub(int dimension, Duration latency) {
+        this.embeddings = new FakeEmbeddingModel(dimension);
+        this.latency = latency;
+        try {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.setExecutor(executor);
+        server.createContext("/api/embed", handler(this::embed));
+        server.createContext("/api/embeddings", handler(this::embedOne));
+        server.createContext("/v1/chat/completions", handler(this::chat));
+        server.createContext("/graphql", handler(this::properties));
+        server.start();
+    }
+
+    /**
+     * @return Base URL of the server, e.g. {@code http://localhost:41234}
+     */
+    public String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    void latency(Duration latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param textLatency Additional time an embedding request takes per text, like a model server computing them
+     */
+    void textLatency(Duration textLatency) {
+        this.textLatency = textLatency;
+    }
+
+    /**
+     * Ollama embed request of several texts, {@code {"model": ..., "input": [...]}}
+     */
+    private JsonNode embed(JsonNode request) {
+        embeddingRequests.incrementAndGet();
+        JsonNode input = request.path("input");
+        ArrayNode vectors = MAPPER.createArrayNode();
+        if (input.isArray()) {
+            input.forEach(text -> vectors.add(vector(text.asText())));
+        } else {
+            vectors.add(vector(input.asText()));
+        }
+        embeddingBatches.add(vectors.size());
+        try {
+            Thread.sleep(textLatency.multipliedBy(vectors.size()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return MAPPER.createObjectNode()
+                .put("model", request.path("model").asText())
+                .set("embeddings", vectors);
+    }
+
+    /**
+     * Legacy Ollama embedding request of one text, {@code {"model": ..., "prompt": ...}}
+     */
+    private JsonNode embedOne(JsonNode request) {
+        embeddingRequests.incrementAndGet();
+        embeddingBatches.add(1);
+        return MAPPER.createObjectNode().set("embedding", vector(request.path("prompt").asText()));
+    }
+
+    private ArrayNode vector(String text) {
+        ArrayNode vector = MAPPER.createArrayNode();
+        for (float value : embeddings.vector(text)) {
+            vector.add(value);
+        }
+        return vector;
+    }
+
+    private JsonNode chat(JsonNode request) {
+        chatRequests.incrementAndGet();
+        ObjectNode response = MAPPER.createObjectNode()
+                .put("id", "chatcmpl-" + chatRequests.get())
+                .put("object", "chat.completion")
+                .put("created", 0)
+                .put("model", request.path("model").asText());
+        ObjectNode choice = response.putArray("choices").addObject().put("index", 0).put("finish_reason", "stop");
+        choice.putObject("message").put("role", "assistant").put("content", ANSWER);
+        response.putObject("usage").put("prompt_tokens", 1).put("completion_tokens", 1).put("total_tokens", 2);
+        return response;
+    }
+
+    /**
+     * Broker query of properties by ids, every id is found
+     */
+    private JsonNode properties(JsonNode request) {
+        brokerRequests.incrementAndGet();
+        List<String> ids = MAPPER.convertValue(request.path("variables").path("filters").path("ids"),
+                MAPPER.getTypeFactory().constructCollectionType(List.class, String.class));
+        brokerBatches.add(ids);
+        ArrayNode properties = MAPPER.createArrayNode();
+        for (String id : ids) {
+            properties.addObject()
+                    .put("id", id)
+                    .put("title", "Title")
+                    .put("description", "Description")
+                    .put("serialId", "serial-" + id.substring(0, 8))
+                    .putArray("media");
+        }
+        ObjectNode response = MAPPER.createObjectNode();
+        response.putObject("data").set("properties", properties);
+        return response;
+    }
+
+    private HttpHandler handler(Function<JsonNode, JsonNode> answer) {
+        return exchange -> {
+            try (exchange) {
+                JsonNode request;
+                try (InputStream body = exchange.getRequestBody()) {
+                    request = MAPPER.readTree(body);
+                }
+                FakeBrokerClient.sleep(latency.toMillis());
+                respond(exchange, MAPPER.writeValueAsBytes(answer.apply(request)));
+            }
+        };
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,37 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.clients.BrokerClient;
+import dev.ilidaz.clients.dtos.BrokerPropertyDto;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Broker answering every request with the current responder, which tests switch to simulate a slow or failing broker
+ */
+class FakeBrokerClient extends BrokerClient {
+
+    final AtomicInteger requests = new AtomicInteger();
+    volatile Function<List<String>, List<BrokerPropertyDto>> responder = FakeBrokerClient::found;
+
+    @Override
+    public List<BrokerPropertyDto> properties(List<String> ids) {
+        requests.incrementAndGet();
+        return responder.apply(ids);
+    }
+
+    static List<BrokerPropertyDto> found(List<String> ids) {
+        return ids.stream()
+                .map(id -> new BrokerPropertyDto(id, "Description", "Title", "serial-" + id.substring(0, 8), List.of()))
+                .toList();
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
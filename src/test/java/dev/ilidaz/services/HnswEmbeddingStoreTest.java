@@ -0,0 +1,202 @@
+package dev.ilidaz.services;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswEmbeddingStoreTest {
+
+    private static final int DIMENSION = 16;
+
+    private final FakeEmbeddingModel model = new FakeEmbeddingModel(DIMENSION);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresMetadataTypesFromTheIndexFile() {
+        HnswEmbeddingStore store = store(Quantization.NONE, 4);
+        store.open();
+        addProperties(store, 20);
+        store.close();
+
+        HnswEmbeddingStore restored = store(Quantization.NONE, 4);
+        restored.open();
+
+        assertTypedMetadata(restored);
+    }
+
+    @Test
+    void restoresMetadataTypesFromTheJournal() {
+        HnswEmbeddingStore store = store(Quantization.NONE, 4);
+        store.open();
+        addProperties(store, 20);
+        store.checkpoint();
+        assertTrue(Files.exists(directory.resolve("hnsw.index" + HnswEmbeddingStore.JOURNAL_SUFFIX)));
+
+        HnswEmbeddingStore restored = store(Quantization.NONE, 4);
+        restored.open();
+
+        assertTypedMetadata(restored);
+    }
+
+    @Test
+    void fillsResultsPastTombstones() {
+        // A rerank factor of 1 re-ranks only as many candidates as results are requested
+        HnswEmbeddingStore store = store(Quantization.INT8, 1);
+        store.open();
+        List<String> ids = addProperties(store, 300);
+        Embedding query = Embedding.from(model.vector("flat 7 with balcony"));
+
+        // Remove the nearest neighbours, they stay in the graph as tombstones
+        List<String> removed = search(store, query, 10, null).stream().map(EmbeddingMatch::embeddingId).toList();
+        store.removeAll(removed);
+        List<EmbeddingMatch<TextSegment>> matches = search(store, query, 10, null);
+
+        assertEquals(10, matches.size());
+        assertTrue(matches.stream().noneMatch(match -> removed.contains(match.embeddingId())));
+        assertEquals(ids.size() - removed.size(), store.size());
+        for (int i = 1; i < matches.size(); i++) {
+            assertTrue(matches.get(i - 1).score() >= matches.get(i).score());
+        }
+    }
+
+    @Test
+    void keepsTheFloatVectorsOfQuantizedIndexesInTheVectorFile() throws IOException {
+        HnswEmbeddingStore quantized = store(directory.resolve("int8/hnsw.index"), Quantization.INT8, 4);
+        quantized.open();
+        addProperties(quantized, 300);
+        Embedding query = Embedding.from(model.vector("flat 7 with balcony"));
+        List<String> nearest = search(quantized, query, 5, null).stream().map(EmbeddingMatch::embeddingId).toList();
+        quantized.close();
+        HnswEmbeddingStore plain = store(directory.resolve("none/hnsw.index"), Quantization.NONE, 4);
+        plain.open();
+        addProperties(plain, 300);
+        plain.close();
+
+        // Codes and a scale per node instead of the float vectors
+        assertTrue(Files.size(directory.resolve("int8/hnsw.index")) < Files.size(directory.resolve("none/hnsw.index")));
+        assertEquals(List.of("hnsw.index.vectors.0"), vectorFiles(directory.resolve("int8")));
+        assertEquals(List.of(), vectorFiles(directory.resolve("none")));
+
+        HnswEmbeddingStore restored = store(directory.resolve("int8/hnsw.index"), Quantization.INT8, 4);
+        restored.open();
+        assertEquals(nearest, search(restored, query, 5, null).stream().map(EmbeddingMatch::embeddingId).toList());
+        restored.close();
+
+        // Without quantization the float vectors are read back from the vector file, which the next index file holds
+        HnswEmbeddingStore unquantized = store(directory.resolve("int8/hnsw.index"), Quantization.NONE, 4);
+        unquantized.open();
+        assertEquals(nearest, search(unquantized, query, 5, null).stream().map(EmbeddingMatch::embeddingId).toList());
+        unquantized.close();
+        assertEquals(List.of(), vectorFiles(directory.resolve("int8")));
+    }
+
+    @Test
+    void compactsQuantizedIndexesIntoANewVectorFile() throws IOException {
+        HnswEmbeddingStore store = store(Quantization.INT8, 4);
+        store.open();
+        List<String> ids = addProperties(store, 300);
+        store.close();
+
+        HnswEmbeddingStore restored = store(Quantization.INT8, 4);
+        restored.open();
+        restored.removeAll(ids.subList(0, 280));
+        restored.checkpoint();
+
+        // The vectors moved down, the vector file of the previous index file was left alone until it was replaced
+        assertEquals(List.of("hnsw.index.vectors.1"), vectorFiles(directory));
+        HnswEmbeddingStore compacted = store(Quantization.INT8, 4);
+        compacted.open();
+        assertEquals(20, compacted.size());
+        EmbeddingMatch<TextSegment> match = search(compacted, Embedding.from(model.vector("flat 290 with balcony")), 1, null)
+                .getFirst();
+        assertEquals("property-290", match.embedded().metadata().getString("id"));
+        assertTrue(match.score() > 0.99);
+    }
+
+    private static List<String> vectorFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("hnsw.index" + HnswEmbeddingStore.VECTORS_SUFFIX))
+                    .toList();
+        }
+    }
+
+    private void assertTypedMetadata(HnswEmbeddingStore store) {
+        assertEquals(20, store.size());
+        Embedding query = Embedding.from(model.vector("flat 3 with balcony"));
+        for (Filter filter : List.of(
+                metadataKey("index").isEqualTo(3),
+                metadataKey("price").isGreaterThan(2999.0).and(metadataKey("price").isLessThan(3001.0)),
+                metadataKey("views").isEqualTo(3_000_000_000L),
+                metadataKey("owner").isEqualTo(owner(3)))) {
+            List<EmbeddingMatch<TextSegment>> matches = search(store, query, 5, filter);
+            assertEquals(1, matches.size(), filter.toString());
+            Metadata metadata = matches.getFirst().embedded().metadata();
+            assertEquals("property-3", metadata.getString("id"));
+            assertEquals(3, metadata.getInteger("index"));
+            assertEquals(3000.0, metadata.getDouble("price"));
+            assertEquals(3_000_000_000L, metadata.getLong("views"));
+            assertEquals(1.5f, metadata.getFloat("rating"));
+            assertEquals(owner(3), metadata.getUUID("owner"));
+        }
+    }
+
+    private List<String> addProperties(HnswEmbeddingStore store, int count) {
+        List<Embedding> embeddings = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String text = "flat %d with %s".formatted(i, i % 2 == 0 ? "balcony" : "garden");
+            embeddings.add(Embedding.from(model.vector(text)));
+            segments.add(TextSegment.from(text, Metadata.from(Map.of(
+                    "id", "property-" + i,
+                    "index", i,
+                    "price", i * 1000.0,
+                    "views", i * 1_000_000_000L,
+                    "rating", 1.5f,
+                    "owner", owner(i)))));
+        }
+        return store.addAll(embeddings, segments);
+    }
+
+    private static UUID owner(int i) {
+        return new UUID(42, i);
+    }
+
+    private static List<EmbeddingMatch<TextSegment>> search(HnswEmbeddingStore store, Embedding query, int maxResults,
+                                                            Filter filter) {
+        return store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(maxResults)
+                .minScore(0.0)
+                .filter(filter)
+                .build()).matches();
+    }
+
+    private HnswEmbeddingStore store(Quantization quantization, int rerankFactor) {
+        return store(directory.resolve("hnsw.index"), quantization, rerankFactor);
+    }
+
+    private HnswEmbeddingStore store(Path file, Quantization quantization, int rerankFactor) {
+        return new HnswEmbeddingStore(DIMENSION, 16, 200, 64, file, 0, quantization, rerankFactor, 0.9);
+    }
+}
@@ -0,0 +1,121 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImportServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void resumesAfterTheLastEmbeddedBatch() throws Exception {
+        Path file = csv(10);
+        // Records are numbered from the header, the batches hold properties 0-2, 3-5, 6-8 and 9
+        RecordingImportService failing = service(Set.of("property-4"));
+        failing.load(file);
+
+        Path checkpoint = directory.resolve("import.checkpoint");
+        long run = failing.runs.getFirst();
+        assertEquals(run + " 4", Files.readString(checkpoint));
+        assertEquals(List.of(), failing.vanishedRuns);
+        assertEquals(ids(0, 10), failing.saved);
+
+        RecordingImportService resumed = service(Set.of());
+        resumed.load(file);
+
+        // The failed batch and every batch after it are synced again by the same run
+        assertEquals(ids(3, 10), resumed.saved);
+        assertEquals(ids(3, 10), resumed.embedded);
+        assertEquals(Set.of(run), Set.copyOf(resumed.runs));
+        assertEquals(List.of(run), resumed.vanishedRuns);
+        assertFalse(Files.exists(checkpoint));
+    }
+
+    @Test
+    void startsANewRunOnceASyncCompleted() throws Exception {
+        Path file = csv(4);
+        RecordingImportService first = service(Set.of());
+        first.load(file);
+        RecordingImportService second = service(Set.of());
+        second.load(file);
+
+        assertEquals(ids(0, 4), second.saved);
+        assertTrue(second.runs.getFirst() >= first.runs.getFirst());
+        assertEquals(1, Set.copyOf(second.runs).size());
+        assertEquals(second.runs.subList(0, 1), second.vanishedRuns);
+    }
+
+    private RecordingImportService service(Set<String> failingIds) {
+        RecordingImportService service = new RecordingImportService(failingIds);
+        service.metrics = new SearchMetrics(new SimpleMeterRegistry());
+        service.batchSize = 3;
+        service.parallelism = 1;
+        service.checkpointFile = directory.resolve("import.checkpoint");
+        return service;
+    }
+
+    private Path csv(int properties) throws IOException {
+        List<String> lines = new ArrayList<>(List.of("id;title;description;singleLine"));
+        for (int i = 0; i < properties; i++) {
+            lines.add("property-%d;%d bedroom flat;Bright flat.;%d High Street, Camden".formatted(i, 1 + i % 3, i));
+        }
+        return Files.write(directory.resolve("properties.csv"), lines);
+    }
+
+    private static List<String> ids(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "property-" + i).toList();
+    }
+
+    /**
+     * Import service without a database and embedding store, every saved property counts as new
+     */
+    private static class RecordingImportService extends ImportService {
+
+        private final Set<String> failingIds;
+        final List<String> saved = new CopyOnWriteArrayList<>();
+        final List<String> embedded = new CopyOnWriteArrayList<>();
+        final List<Long> runs = new CopyOnWriteArrayList<>();
+        final List<Long> vanishedRuns = new CopyOnWriteArrayList<>();
+
+        RecordingImportService(Set<String> failingIds) {
+            this.failingIds = failingIds;
+        }
+
+        @Override
+        public BatchChanges saveBatch(List<Property> batch, long run) {
+            batch.forEach(property -> saved.add(property.getId()));
+            runs.add(run);
+            return new BatchChanges(batch, List.of());
+        }
+
+        @Override
+        public void embed(BatchChanges changes) {
+            if (changes.all().stream().anyMatch(property -> failingIds.contains(property.getId()))) {
+                throw new IllegalStateException("Embedding server unavailable");
+            }
+            changes.all().forEach(property -> embedded.add(property.getId()));
+        }
+
+        @Override
+        public List<String> deleteVanishedBatch(long run) {
+            vanishedRuns.add(run);
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.entities.Property;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.runtime.StartupEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LexicalIndexTest {
+
+    private static final String[] REGIONS = {"Camden", "Hackney", "Islington"};
+    private static final String[] TYPES = {"flat", "house", "studio"};
+    private static final String[] FEATURES = {"balcony", "garden", "parking", "terrace", "gym", "sauna"};
+
+    private final StartupTimings timings = new StartupTimings(new SimpleMeterRegistry());
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresSnapshot() throws IOException {
+        LexicalIndex index = index(Optional.of(directory), 0.2);
+        properties(300).forEach(index::index);
+        index.remove("property-1");
+        index.index(property("property-2", "studio with sauna", "Quiet studio with a sauna.", "5 Mill Road, Hackney"));
+        index.write(directory.resolve("lexical.index"));
+
+        LexicalIndex restored = index(Optional.of(directory), 0.2);
+        restored.onStart(new StartupEvent());
+        restored.loaded().join();
+
+        assertEquals(index.size(), restored.size());
+        assertTrue(restored.isRegion("hackney"));
+        for (String query : List.of("2 bedroom flat with balcony", "studio with sauna in hackney", "garden")) {
+            assertEquals(index.search(query, 10), restored.search(query, 10));
+            assertEquals(index.search(query, 10, new SearchFilter("camden", "apartment")),
+                    restored.search(query, 10, new SearchFilter("camden", "apartment")));
+        }
+        assertEquals("property-2", restored.search("studio with sauna", 1).getFirst());
+        assertFalse(restored.search("balcony garden parking terrace gym sauna", 300).contains("property-1"));
+    }
+
+    @Test
+    void ranksLikeScoringEveryProperty() {
+        // A low compaction ratio renumbers the documents while properties are removed
+        LexicalIndex index = index(Optional.empty(), 0.05);
+        List<Property> properties = properties(2000);
+        properties.forEach(index::index);
+        List<Property> live = new ArrayList<>();
+        for (Property property : properties) {
+            if (property.getId().hashCode() % 7 == 0) {
+                index.remove(property.getId());
+            } else {
+                live.add(property);
+            }
+        }
+        List<String> texts = live.stream()
+                .map(property -> String.join(" ", property.getTitle(), property.getDescription(), property.getSingleLine()))
+                .toList();
+
+        for (String query : List.of("3 bedroom flat with balcony in camden", "garden", "house with gym and sauna",
+                "studio islington parking terrace")) {
+            List<Double> scores = index.score(query, texts);
+            for (int k : new int[]{1, 5, 50}) {
+                List<Double> expected = scores.stream().filter(score -> score > 0)
+                        .sorted(Comparator.reverseOrder()).limit(k).toList();
+                List<String> ids = index.search(query, k);
+                assertEquals(expected.size(), ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    String id = ids.get(i);
+                    double score = scores.get(IntStream.range(0, live.size())
+                            .filter(doc -> live.get(doc).getId().equals(id)).findFirst().orElseThrow());
+                    assertEquals(expected.get(i), score, 1e-4, query + " at " + i);
+                }
+            }
+        }
+    }
+
+    private LexicalIndex index(Optional<Path> snapshotDirectory, double compactionRatio) {
+        return new LexicalIndex(timings, true, snapshotDirectory, Duration.ofHours(24), compactionRatio);
+    }
+
+    private static List<Property> properties(int count) {
+        List<Property> properties = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int bedrooms = 1 + i % 4;
+            String type = TYPES[i % TYPES.length];
+            String region = REGIONS[i / 3 % REGIONS.length];
+            String feature = FEATURES[i * 7 % FEATURES.length];
+            properties.add(property("property-" + i, "%d bedroom %s with %s".formatted(bedrooms, type, feature),
+                    "Bright %d bedroom %s in %s. Features include %s and %s.".formatted(bedrooms, type, region, feature,
+                            FEATURES[i % 5]) + " Recently refurbished.".repeat(i % 3),
+                    "%d High Street, %s".formatted(1 + i % 90, region)));
+        }
+        return properties;
+    }
+
+    private static Property property(String id, String title, String description, String singleLine) {
+        return Property.builder().id(id).title(title).description(description).singleLine(singleLine).build();
+    }
+}
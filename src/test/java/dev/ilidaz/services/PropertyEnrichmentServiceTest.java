@@ -0,0 +1,148 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.clients.BrokerClient;
+import dev.ilidaz.clients.BrokerClients;
+import dev.ilidaz.clients.dtos.BrokerPropertyDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.microprofile.faulttolerance.exceptions.CircuitBreakerOpenException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PropertyEnrichmentServiceTest {
+
+    private static final String ID = "54d5dbc8-f2d1-49a5-985a-bde311a438bd";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FakeBrokerClient broker = new FakeBrokerClient();
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private PropertyEnrichmentService enrichment;
+
+    @AfterEach
+    void shutdown() {
+        enrichment.shutdown();
+        virtualThreads.shutdownNow();
+    }
+
+    @Test
+    void hedgesSlowRequests() {
+        enrichment = enrichment(50);
+        broker.responder = ids -> {
+            if (broker.requests.get() == 1) {
+                FakeBrokerClient.sleep(5000);
+            }
+            return FakeBrokerClient.found(ids);
+        };
+
+        long started = System.nanoTime();
+        List<BrokerPropertyDto> properties = enrichment.properties(List.of(ID));
+
+        assertEquals(ID, properties.getFirst().getId());
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2, broker.requests.get());
+        assertEquals(1, registry.counter("enrichment.hedge", "result", "sent").count());
+    }
+
+    @Test
+    void retriesFailedRequestsRightAway() {
+        enrichment = enrichment(10_000);
+        broker.responder = ids -> {
+            if (broker.requests.get() == 1) {
+                throw new IllegalStateException("HTTP 502");
+            }
+            return FakeBrokerClient.found(ids);
+        };
+
+        long started = System.nanoTime();
+        assertEquals(ID, enrichment.properties(List.of(ID)).getFirst().getId());
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2, broker.requests.get());
+    }
+
+    @Test
+    void servesCachedPropertiesWhileCircuitIsOpen() {
+        enrichment = enrichment(0);
+        enrichment.properties(List.of(ID));
+        broker.responder = ids -> {
+            throw new CircuitBreakerOpenException("properties");
+        };
+
+        assertThrows(CircuitBreakerOpenException.class,
+                () -> enrichment.properties(List.of("00000000-0000-0000-0000-000000000000")));
+        assertEquals(ID, enrichment.cached(List.of(ID, "00000000-0000-0000-0000-000000000000")).getFirst().getId());
+    }
+
+    @Test
+    void coalescesConcurrentCallersIntoOneBrokerQuery() throws Exception {
+        try (DownstreamStub stub = new DownstreamStub(8, Duration.ofMillis(20))) {
+            enrichment = enrichment(BrokerClients.over(stub.url() + "/graphql"), 50, 0);
+            List<String> ids = IntStream.range(0, 19).mapToObj(PropertyEnrichmentServiceTest::id).toList();
+
+            // Every caller asks for an overlapping slice of the ids within the batch window
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<BrokerPropertyDto>>> callers = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                List<String> slice = ids.subList(i, i + 10);
+                callers.add(virtualThreads.submit(() -> {
+                    start.await();
+                    return enrichment.properties(slice);
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < callers.size(); i++) {
+                assertEquals(ids.subList(i, i + 10), callers.get(i).get(5, TimeUnit.SECONDS).stream()
+                        .map(BrokerPropertyDto::getId)
+                        .toList());
+            }
+            assertEquals(1, stub.brokerRequests.get());
+            assertEquals(Set.copyOf(ids), Set.copyOf(stub.brokerBatches.peek()));
+        }
+    }
+
+    @Test
+    void servesRepeatedIdsFromTheCache() {
+        try (DownstreamStub stub = new DownstreamStub(8, Duration.ofMillis(20))) {
+            enrichment = enrichment(BrokerClients.over(stub.url() + "/graphql"), 50, 0);
+            enrichment.properties(List.of(id(1), id(2)));
+
+            List<BrokerPropertyDto> properties = enrichment.properties(List.of(id(2), id(1), id(3)));
+
+            assertEquals(List.of(id(2), id(1), id(3)), properties.stream().map(BrokerPropertyDto::getId).toList());
+            assertEquals("serial-" + id(3).substring(0, 8), properties.getLast().getSerialId());
+            assertEquals(2, stub.brokerRequests.get());
+            assertEquals(List.of(id(3)), stub.brokerBatches.stream().toList().getLast());
+            assertEquals(2, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        }
+    }
+
+    private PropertyEnrichmentService enrichment(long hedgeDelayMillis) {
+        return enrichment(broker, 1, hedgeDelayMillis);
+    }
+
+    private PropertyEnrichmentService enrichment(BrokerClient brokerClient, long windowMillis, long hedgeDelayMillis) {
+        return new PropertyEnrichmentService(brokerClient, new DownstreamLimiter(4, 4, 4, 4, Duration.ofSeconds(1)),
+                new SearchMetrics(registry), virtualThreads,
+                100, Duration.ofMinutes(10), windowMillis, 100, hedgeDelayMillis, registry);
+    }
+
+    private static String id(int i) {
+        return UUID.nameUUIDFromBytes(("property-" + i).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
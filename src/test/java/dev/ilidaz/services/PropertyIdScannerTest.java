@@ -0,0 +1,45 @@
+package dev.ilidaz.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PropertyIdScannerTest {
+
+    private static final String ID = "54d5dbc8-f2d1-49a5-985a-bde311a438bd";
+    private static final String OTHER_ID = "0b7c3f3e-2a4d-4c1e-9f5a-6d8e7b9c0a1f";
+
+    @Test
+    void reportsIdsSplitBetweenTokensOnceComplete() {
+        PropertyIdScanner scanner = new PropertyIdScanner();
+
+        assertEquals(List.of(), scanner.feed("A flat {\"id\": \"" + ID.substring(0, 10)));
+        assertEquals(List.of(), scanner.feed(ID.substring(10) + "\" "));
+        assertEquals(List.of(ID), scanner.feed("} and " + OTHER_ID.substring(0, 30)));
+        assertEquals(List.of(OTHER_ID), scanner.feed(OTHER_ID.substring(30)));
+        assertEquals(List.of(), scanner.finish());
+    }
+
+    @Test
+    void completesOpenMatchesAtTheEndLikeFindIds() {
+        for (String text : List.of(
+                "A flat {\"id\": \"" + ID + "\"",
+                "A flat {\"id\": \"" + ID,
+                "A flat {\"id\": \"" + ID + "\"} and " + OTHER_ID,
+                "A flat {\"id\": \"" + ID.substring(0, 20),
+                "A flat {\"id\"")) {
+            PropertyIdScanner scanner = new PropertyIdScanner();
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < text.length(); i += 7) {
+                ids.addAll(scanner.feed(text.substring(i, Math.min(i + 7, text.length()))));
+            }
+            ids.addAll(scanner.finish());
+
+            assertEquals(PropertyIdScanner.findIds(text), ids, text);
+        }
+        assertEquals(List.of(ID), PropertyIdScanner.findIds("A flat {\"id\": \"" + ID + "\""));
+    }
+}
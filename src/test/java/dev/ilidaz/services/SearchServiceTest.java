@@ -0,0 +1,304 @@
+package dev.ilidaz.services;
+
+import dev.ilidaz.clients.dtos.BrokerPropertyDto;
+import dev.ilidaz.dtos.PropertyConnectionDto;
+import dev.ilidaz.dtos.PropertyEdgeDto;
+import dev.ilidaz.dtos.PropertyField;
+import dev.ilidaz.dtos.SearchResponseDto;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Multi;
+import org.eclipse.microprofile.faulttolerance.exceptions.CircuitBreakerOpenException;
+import org.eclipse.microprofile.faulttolerance.exceptions.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchServiceTest {
+
+    private static final String ID = "54d5dbc8-f2d1-49a5-985a-bde311a438bd";
+    private static final String UNCACHED_ID = "0b7c3f3e-2a4d-4c1e-9f5a-6d8e7b9c0a1f";
+    private static final String ANSWER = "This flat has a balcony {\"id\": \"" + ID + "\"}";
+
+    private static final Set<PropertyField> FIELDS = Set.of(PropertyField.ID, PropertyField.TITLE);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FakeBot bot = new FakeBot();
+    private final FakeBrokerClient broker = new FakeBrokerClient();
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private PropertyEnrichmentService enrichment;
+    private ConversationMemoryProvider memories;
+    private SearchService searchService;
+
+    @BeforeEach
+    void setUp() {
+        SearchMetrics metrics = new SearchMetrics(registry);
+        DownstreamLimiter limiter = new DownstreamLimiter(4, 4, 4, 4, Duration.ofSeconds(1));
+
+        enrichment = new PropertyEnrichmentService(broker, limiter, metrics, virtualThreads,
+                100, Duration.ofMinutes(10), 1, 100, 0, registry);
+        SemanticAnswerCache answerCache = new SemanticAnswerCache(new FailingEmbeddingModel(),
+                true, 0.95, 100, Duration.ofHours(1), registry);
+        // Empty, degraded answers list no matches and don't need the database
+        LexicalIndex lexicalIndex = new LexicalIndex(null, false, Optional.empty(), Duration.ofHours(24), 0.2);
+        memories = new ConversationMemoryProvider(
+                1000, Duration.ofMinutes(30), 100, Optional.empty(), registry);
+
+        searchService = new SearchService(null, null, virtualThreads, enrichment, bot, null,
+                limiter, answerCache, lexicalIndex, memories, metrics, null, null, Hydration.METADATA, false, 60, 3,
+                100, 50, 8, 500, Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void shutdown() {
+        enrichment.shutdown();
+        virtualThreads.shutdownNow();
+    }
+
+    @Test
+    void answersWithBotWhileAnswerCacheCantEmbed() {
+        bot.answer = () -> ANSWER;
+
+        SearchResponseDto response = searchService.chat("conversation", "flat with balcony");
+
+        assertEquals("This flat has a balcony serial-54d5dbc8", response.getMessage());
+        assertEquals(ID, response.getProperties().getFirst().getId());
+        assertEquals(1, bot.calls);
+    }
+
+    @Test
+    void degradesWhenBotTimesOut() {
+        bot.answer = () -> {
+            throw new TimeoutException("chat");
+        };
+
+        assertDegraded(searchService.chat("conversation", "flat with balcony"));
+    }
+
+    @Test
+    void degradesWhileBotCircuitIsOpen() {
+        bot.answer = () -> {
+            throw new CircuitBreakerOpenException("chat");
+        };
+
+        assertDegraded(searchService.chat("conversation", "flat with balcony"));
+    }
+
+    @Test
+    void degradesWhenModelFails() {
+        bot.answer = () -> {
+            throw new IllegalStateException("HTTP 503 Service Unavailable");
+        };
+
+        assertDegraded(searchService.chat("conversation", "flat with balcony"));
+    }
+
+    @Test
+    void answersWithCachedPropertiesWhileBrokerCircuitIsOpen() {
+        bot.answer = () -> ANSWER;
+        searchService.chat("first", "flat with balcony");
+        bot.answer = () -> ANSWER + " and this one has a garden {\"id\": \"" + UNCACHED_ID + "\"}";
+        broker.responder = ids -> {
+            throw new CircuitBreakerOpenException("properties");
+        };
+
+        SearchResponseDto response = searchService.chat("second", "flat with balcony or garden");
+
+        assertEquals("This flat has a balcony serial-54d5dbc8 and this one has a garden {\"id\": \"" + UNCACHED_ID + "\"}",
+                response.getMessage());
+        assertEquals(List.of(ID), response.getProperties().stream().map(BrokerPropertyDto::getId).toList());
+        assertEquals(1, registry.counter("chat.degraded", "result", "broker").count());
+    }
+
+    @Test
+    void appendsKeywordMatchesWhenStreamFails() {
+        bot.stream = Multi.createBy().concatenating().streams(
+                Multi.createFrom().items("This flat ", "has a balcony"),
+                Multi.createFrom().failure(new IllegalStateException("HTTP 503 Service Unavailable")));
+
+        List<SearchResponseDto> frames = searchService.chatStream("conversation", "flat with balcony", "message")
+                .collect().asList().await().atMost(Duration.ofSeconds(5));
+
+        assertEquals(4, frames.size());
+        assertEquals("\n\n" + SearchService.DEGRADED_NO_MATCHES, frames.get(2).getMessage());
+        assertEquals("This flat has a balcony\n\n" + SearchService.DEGRADED_NO_MATCHES, frames.getLast().getMessage());
+        assertFalse(frames.getLast().isPartial());
+        assertEquals(1, registry.counter("chat.degraded", "result", "llm").count());
+    }
+
+    @Test
+    void enrichesTheLastIdWhenTheStreamEndsInAPlaceholder() {
+        // The model stopped before closing the placeholder, the id is split between two tokens
+        bot.stream = Multi.createFrom().items("This flat has a balcony {\"id\": \"" + ID.substring(0, 20),
+                ID.substring(20) + "\"");
+
+        List<SearchResponseDto> frames = searchService.chatStream("conversation", "flat with balcony", "message")
+                .collect().asList().await().atMost(Duration.ofSeconds(5));
+
+        assertEquals(List.of(ID), frames.getLast().getProperties().stream().map(BrokerPropertyDto::getId).toList());
+        assertFalse(frames.getLast().isPartial());
+    }
+
+    @Test
+    void pagesThroughTheRankingOnce() {
+        FakeEmbeddingModel server = new FakeEmbeddingModel(16);
+        SearchService paging = pagingService(server, 25);
+        long stored = server.requests();
+
+        PropertyConnectionDto first = paging.page("flat with balcony", 10, null, 0, FIELDS);
+        PropertyConnectionDto second = paging.page("flat with balcony", 10, first.getPageInfo().getEndCursor(), 0, FIELDS);
+        PropertyConnectionDto last = paging.page("flat with balcony", 10, second.getPageInfo().getEndCursor(), 0, FIELDS);
+        List<PropertyEdgeDto> all = Stream.of(first, second, last).flatMap(page -> page.getEdges().stream()).toList();
+
+        assertEquals(List.of(10, 10, 5), List.of(first.getEdges().size(), second.getEdges().size(), last.getEdges().size()));
+        assertEquals(IntStream.range(0, 25).mapToObj(i -> "property-" + i).collect(Collectors.toSet()), Set.copyOf(ids(all)));
+        assertEquals(25, ids(all).stream().distinct().count());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getScore() >= all.get(i).getScore());
+        }
+        assertEquals(25, last.getTotalCount());
+        assertFalse(first.getPageInfo().isHasPreviousPage());
+        assertTrue(first.getPageInfo().isHasNextPage());
+        assertTrue(last.getPageInfo().isHasPreviousPage());
+        assertFalse(last.getPageInfo().isHasNextPage());
+        // Nodes are hydrated from the segment metadata with only the requested fields
+        assertEquals("Flat 3", all.get(ids(all).indexOf("property-3")).getNode().getTitle());
+        assertNull(all.getFirst().getNode().getSingleLine());
+        // Following pages are sliced from the cached ranking
+        assertEquals(stored + 1, server.requests());
+    }
+
+    @Test
+    void continuesAfterAnyEdgeOfAPage() {
+        SearchService paging = pagingService(new FakeEmbeddingModel(16), 25);
+        List<PropertyEdgeDto> first = paging.page("flat with balcony", 10, null, 0, FIELDS).getEdges();
+
+        PropertyConnectionDto page = paging.page("flat with balcony", 3, first.get(1).getCursor(), 0, FIELDS);
+
+        assertEquals(ids(first.subList(2, 5)), ids(page.getEdges()));
+        assertEquals(first.get(2).getCursor(), page.getPageInfo().getStartCursor());
+        assertEquals(first.get(4).getCursor(), page.getPageInfo().getEndCursor());
+    }
+
+    @Test
+    void capsThePageSize() {
+        SearchService paging = pagingService(new FakeEmbeddingModel(16), 25);
+
+        assertEquals(10, paging.page("flat with balcony", 30, null, 0, FIELDS).getEdges().size());
+        assertEquals(0, paging.page("flat with balcony", -1, null, 0, FIELDS).getEdges().size());
+    }
+
+    @Test
+    void returnsAnEmptyPageAfterTheLastProperty() {
+        SearchService paging = pagingService(new FakeEmbeddingModel(16), 5);
+
+        PropertyConnectionDto page = paging.page("flat with balcony", 10, cursor("position:30"), 0, FIELDS);
+
+        assertTrue(page.getEdges().isEmpty());
+        assertNull(page.getPageInfo().getEndCursor());
+        assertTrue(page.getPageInfo().isHasPreviousPage());
+        assertFalse(page.getPageInfo().isHasNextPage());
+        assertEquals(5, page.getTotalCount());
+    }
+
+    @Test
+    void rejectsCursorsNotIssuedByPage() {
+        SearchService paging = pagingService(new FakeEmbeddingModel(16), 5);
+
+        for (String cursor : List.of(cursor("position:-1"), cursor("position:-30"), cursor("position:two"),
+                cursor("offset:2"), "not base64!")) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> paging.page("flat with balcony", 10, cursor, 0, FIELDS), cursor);
+        }
+    }
+
+    /**
+     * Search service paging through properties of an in-memory store, with a page size of at most 10
+     */
+    private SearchService pagingService(EmbeddingModel server, int properties) {
+        SearchMetrics metrics = new SearchMetrics(registry);
+        DownstreamLimiter limiter = new DownstreamLimiter(4, 4, 4, 4, Duration.ofSeconds(1));
+        CachedEmbeddingModel embeddingModel = new CachedEmbeddingModel(server, new StartupTimings(registry),
+                100, Duration.ofHours(1), Optional.empty(), registry);
+        InMemoryEmbeddingStore<TextSegment> store = new InMemoryEmbeddingStore<>();
+        for (int i = 0; i < properties; i++) {
+            TextSegment segment = TextSegment.from("Flat %d with %s.".formatted(i, i % 2 == 0 ? "a balcony" : "a garden"),
+                    Metadata.from(Map.of("id", "property-" + i, "title", "Flat " + i, "singleLine", i + " High Street")));
+            store.add(server.embed(segment).content(), segment);
+        }
+        LexicalIndex lexicalIndex = new LexicalIndex(null, false, Optional.empty(), Duration.ofHours(24), 0.2);
+
+        return new SearchService(store, embeddingModel, virtualThreads, enrichment, bot, null,
+                limiter, null, lexicalIndex, memories, metrics, new SearchFilterExtractor(lexicalIndex, false),
+                new SearchResultCache(100, Duration.ofMinutes(2), registry), Hydration.METADATA, false, 60, 1,
+                100, 10, 8, 500, Duration.ofSeconds(5));
+    }
+
+    private static String cursor(String position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> ids(List<PropertyEdgeDto> edges) {
+        return edges.stream().map(edge -> edge.getNode().getId()).toList();
+    }
+
+    private void assertDegraded(SearchResponseDto response) {
+        assertEquals(SearchService.DEGRADED_NO_MATCHES, response.getMessage());
+        assertNull(response.getProperties());
+        assertFalse(response.isPartial());
+        assertEquals(1, registry.counter("chat.degraded", "result", "llm").count());
+        // Follow-up questions see the degraded turn
+        assertTrue(memories.hasHistory("conversation"));
+    }
+
+    private static class FakeBot implements BotService {
+
+        volatile Supplier<String> answer;
+        volatile Multi<String> stream;
+        volatile int calls;
+
+        @Override
+        public String chat(String conversationId, String question) {
+            calls++;
+            return answer.get();
+        }
+
+        @Override
+        public Multi<String> chatStream(String conversationId, String question) {
+            return stream;
+        }
+    }
+
+    private static class FailingEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            throw new IllegalStateException("HTTP 500 Internal Server Error");
+        }
+    }
+}